@@ -1,15 +1,12 @@
 import irc.*;
 
 import javax.swing.*;
-import javax.swing.event.ListDataEvent;
-import javax.swing.event.ListDataListener;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import java.awt.*;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A simple IRC client.
@@ -29,52 +26,32 @@ public class IRCClient {
 		centreFrame.setLayout(new BorderLayout());
 
 		// Create the channels pane
-		final DefaultListModel channels = new DefaultListModel();
-		channels.addElement("console");
+		final SidebarModel channels = new SidebarModel();
+		channels.add("console");
 		JList channelsJList = new JList(channels);
 		Component channelsPane = new JScrollPane(channelsJList);
 		channelsPane.setPreferredSize(new Dimension(200, 0));
 		frame.add(channelsPane, BorderLayout.WEST);
 
-		// Reorder channel list on contents change
-		channels.addListDataListener(new ListDataListener() {
-			private boolean running = false;
-
-			/**
-			 * Sort the channels. DRYs the code.
-			 */
-			private void sortChannels() {
-				if (!running) {
-					running = true;
-					sortChannelList(channels);
-					running = false;
-				}
-			}
-
-			@Override
-			public void intervalAdded(ListDataEvent listDataEvent) {
-				sortChannels();
-			}
-
-			@Override
-			public void intervalRemoved(ListDataEvent listDataEvent) {
-				sortChannels();
-			}
+		// Create the content area
+		ConcurrentHashMap<String, Scrollback> content = new ConcurrentHashMap<String, Scrollback>();
+		ScrollbackPool scrollback = new ScrollbackPool();
+		Scrollback console = scrollback.create("console");
+		content.put("console", console);
+		final JList contentJList = new JList(console);
+		contentJList.setCellRenderer(new LineRenderer());
+		final JScrollPane contentPane = new JScrollPane(contentJList);
+		centreFrame.add(contentPane, BorderLayout.CENTER);
 
+		// Fixed cell sizes, so the list doesn't measure every line
+		contentJList.setFixedCellHeight(contentJList.getFontMetrics(contentJList.getFont()).getHeight() + 2);
+		contentPane.getViewport().addComponentListener(new ComponentAdapter() {
 			@Override
-			public void contentsChanged(ListDataEvent listDataEvent) {
-				sortChannels();
+			public void componentResized(ComponentEvent e) {
+				contentJList.setFixedCellWidth(contentPane.getViewport().getWidth());
 			}
 		});
 
-		// Create the content area
-		HashMap<String, DefaultListModel> content = new HashMap<String, DefaultListModel>();
-		DefaultListModel console = new DefaultListModel();
-		content.put("console", console);
-		JList contentJList = new JList(console);
-		Component contentPane = new JScrollPane(contentJList);
-		centreFrame.add(contentPane, BorderLayout.CENTER);
-
 		// Create the topic bar
 		JLabel topicBar = new JLabel("Console");
 		JScrollPane topicBarScroll = new JScrollPane(topicBar);
@@ -82,7 +59,7 @@ public class IRCClient {
 		centreFrame.add(topicBarScroll, BorderLayout.NORTH);
 
 		// Create the names list
-		DefaultListModel names = new DefaultListModel();
+		NickListModel names = new NickListModel();
 		JList namesJList = new JList(names);
 		Component namesPane = new JScrollPane(namesJList);
 		namesPane.setPreferredSize(new Dimension(150, 0));
@@ -108,7 +85,7 @@ public class IRCClient {
 
 		client.currentDestination = "console";
 
-		client.events.addListener(new ReceivedHandler(channels, content, contentJList, topicBar, names, frame));
+		client.events.addListener(new ReceivedHandler(channels, content, scrollback, contentJList, topicBar, names, frame));
 
 		// Connect
 		try {
@@ -118,7 +95,7 @@ public class IRCClient {
 			System.exit(0);
 		}
 
-		// Quit properly on shutdown
+		// Quit properly on shutdown; does nothing if /quit already has
 		Runtime.getRuntime().addShutdownHook(new Thread() {
 			public void run() {
 				client.quit();
@@ -145,35 +122,4 @@ public class IRCClient {
 			}
 		});
 	}
-
-	/**
-	 * Sorts the channel list by IRC order - "console", followed by channels
-	 * in alphabetical order, followed by queries in alphabetical order.
-	 *
-	 * @param channels The DefaultListModel to reorder.
-	 */
-	public static void sortChannelList(DefaultListModel channels) {
-		ArrayList<String> channelArray = new ArrayList<String>();
-		for (int i = 0; i < channels.size(); i++) {
-			channelArray.add((String) channels.elementAt(i));
-		}
-
-		// Sort so that channels are above users (and console above everything).
-		Collections.sort(channelArray, new Comparator<String>() {
-			@Override
-			public int compare(String chan1, String chan2) {
-				if (chan1.equals("console") || (chan1.startsWith("#") && !chan2.startsWith("#"))) {
-					return -1;
-				}
-
-				return chan1.compareToIgnoreCase(chan2);
-			}
-		});
-
-		channels.clear();
-
-		for (String channelName : channelArray) {
-			channels.addElement(channelName);
-		}
-	}
 }
@@ -0,0 +1,165 @@
+import irc.Formatting;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.font.TextAttribute;
+import java.text.AttributedString;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Shows ScrollbackLines in a JList, with their mIRC bold, colours and so on.
+ * Highlighted lines get a different background.
+ *
+ * Lines are only formatted when they're painted, and each line keeps its
+ * parsed formatting (see ScrollbackLine.getFormatting()). Styled lines are
+ * laid out as AttributedStrings, and the most recently painted ones are
+ * kept, so repainting or scrolling a little doesn't lay out the same lines
+ * again. How much of this is done depends on how much is looked at, not on
+ * how busy the channels are. Plain lines, most of them, are painted as
+ * ordinary labels.
+ *
+ * The list should be given a fixed cell height and width too, or it will
+ * render every line in the window to measure them.
+ *
+ * Only use on the EDT.
+ *
+ * Project: IRCClient
+ */
+public class LineRenderer extends DefaultListCellRenderer {
+	// A few screens' worth
+	private static final int CACHE_SIZE = 512;
+
+	// mIRC colours 0 to 15; the rest are shown in the default colour
+	private static final Color[] COLOURS = {
+			new Color(0xFFFFFF), new Color(0x000000), new Color(0x00007F), new Color(0x009300),
+			new Color(0xFF0000), new Color(0x7F0000), new Color(0x9C009C), new Color(0xFC7F00),
+			new Color(0xFFFF00), new Color(0x00FC00), new Color(0x009393), new Color(0x00FFFF),
+			new Color(0x0000FC), new Color(0xFF00FF), new Color(0x7F7F7F), new Color(0xD2D2D2)
+	};
+
+	private static final Color HIGHLIGHT = new Color(0xFFF2B3);
+
+	// By line; ScrollbackLine doesn't override equals(), so this is by identity
+	private final Map<ScrollbackLine, AttributedString> styled = new LinkedHashMap<ScrollbackLine, AttributedString>(CACHE_SIZE * 2, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<ScrollbackLine, AttributedString> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// What the cached lines were laid out with
+	private Font font;
+	private Color foreground;
+	private Color background;
+
+	// The line being rendered, or null if it's plain
+	private AttributedString current;
+
+	@Override
+	public Component getListCellRendererComponent(JList list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+		current = null;
+		boolean highlighted = false;
+
+		if (value instanceof ScrollbackLine) {
+			ScrollbackLine line = (ScrollbackLine) value;
+			highlighted = line.highlighted;
+			Formatting formatting = line.getFormatting();
+			value = formatting.getText();
+
+			if (!formatting.isPlain()) {
+				if (!list.getFont().equals(font) || !list.getForeground().equals(foreground) || !list.getBackground().equals(background)) {
+					styled.clear();
+					font = list.getFont();
+					foreground = list.getForeground();
+					background = list.getBackground();
+				}
+
+				current = styled.get(line);
+				if (current == null) {
+					current = layout(formatting);
+					styled.put(line, current);
+				}
+			}
+		}
+
+		super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+		if (highlighted && !isSelected) {
+			setBackground(HIGHLIGHT);
+		}
+		return this;
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		if (current == null) {
+			super.paintComponent(g);
+			return;
+		}
+
+		if (isOpaque()) {
+			g.setColor(getBackground());
+			g.fillRect(0, 0, getWidth(), getHeight());
+		}
+
+		Insets insets = getInsets();
+		FontMetrics metrics = g.getFontMetrics(getFont());
+		int y = insets.top + (getHeight() - insets.top - insets.bottom - metrics.getHeight()) / 2 + metrics.getAscent();
+
+		// Runs without a colour are drawn in the label's colour
+		g.setColor(getForeground());
+		((Graphics2D) g).drawString(current.getIterator(), insets.left, y);
+	}
+
+	private AttributedString layout(Formatting formatting) {
+		AttributedString text = new AttributedString(formatting.getText());
+		int length = formatting.getText().length();
+		text.addAttribute(TextAttribute.FAMILY, font.getFamily());
+		text.addAttribute(TextAttribute.SIZE, font.getSize2D());
+
+		for (int i = 0; i < formatting.getSpanCount(); i++) {
+			int start = formatting.getStart(i);
+			int end = formatting.getEnd(i);
+			int style = formatting.getStyle(i);
+			if (start == end || start >= length) {
+				continue;
+			}
+
+			if (Formatting.is(style, Formatting.BOLD)) {
+				text.addAttribute(TextAttribute.WEIGHT, TextAttribute.WEIGHT_BOLD, start, end);
+			}
+			if (Formatting.is(style, Formatting.ITALIC)) {
+				text.addAttribute(TextAttribute.POSTURE, TextAttribute.POSTURE_OBLIQUE, start, end);
+			}
+			if (Formatting.is(style, Formatting.UNDERLINE)) {
+				text.addAttribute(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON, start, end);
+			}
+			if (Formatting.is(style, Formatting.STRIKETHROUGH)) {
+				text.addAttribute(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON, start, end);
+			}
+			if (Formatting.is(style, Formatting.MONOSPACE)) {
+				text.addAttribute(TextAttribute.FAMILY, Font.MONOSPACED, start, end);
+			}
+
+			Color fg = colour(Formatting.getForeground(style));
+			Color bg = colour(Formatting.getBackground(style));
+			if (Formatting.is(style, Formatting.REVERSE)) {
+				Color swap = fg == null ? foreground : fg;
+				fg = bg == null ? background : bg;
+				bg = swap;
+			}
+			if (fg != null) {
+				text.addAttribute(TextAttribute.FOREGROUND, fg, start, end);
+			}
+			if (bg != null) {
+				text.addAttribute(TextAttribute.BACKGROUND, bg, start, end);
+			}
+		}
+
+		return text;
+	}
+
+	private static Color colour(int colour) {
+		return colour >= 0 && colour < COLOURS.length ? COLOURS[colour] : null;
+	}
+}
@@ -0,0 +1,278 @@
+import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Scrollback that keeps a window's whole history on disk, so it can grow
+ * without growing the heap.
+ *
+ * Lines are appended to a log file ([length][time][kind and highlight bit]
+ * then the nick, target and text as [length][UTF-8], per line) and the
+ * offset of each line is written to an index file, whose first four bytes
+ * hold the line count and next four the format version. Logs in an older
+ * format are started over. Both files are memory mapped, so finding line i
+ * is a read from the index and a read from the log, however far back it
+ * is. Only recently added or viewed lines are kept decoded in memory.
+ *
+ * A window's history is picked up again when the same window is opened with
+ * the same directory. Each log can hold up to 2GB.
+ *
+ * Project: IRCClient
+ */
+public class MappedScrollback extends AbstractListModel implements Scrollback {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// Length, time and kind before the strings of each line
+	private static final int RECORD_HEADER = 13;
+	private static final int INDEX_HEADER = 8;
+	private static final int VERSION = 2;
+	// Set in the kind byte of highlighted lines
+	private static final int HIGHLIGHTED = 0x80;
+
+	// Decoded lines, by index modulo the cache size; a power of two
+	private static final int CACHE_SIZE = 1024;
+
+	private final FileChannel logChannel;
+	private final FileChannel indexChannel;
+	private MappedByteBuffer log;
+	private MappedByteBuffer index;
+
+	private int logEnd;
+	private int size;
+	private boolean closed = false;
+
+	// How many windows share this log; kept by the ScrollbackPool
+	int references = 0;
+
+	private final ScrollbackLine[] cache = new ScrollbackLine[CACHE_SIZE];
+	private final int[] cached = new int[CACHE_SIZE];
+
+	/**
+	 * Opens (or creates) the log for a window.
+	 *
+	 * @param dir  The directory to keep logs in.
+	 * @param name The window name, eg "#channel".
+	 * @throws IOException If the files can't be opened or mapped.
+	 */
+	public MappedScrollback(File dir, String name) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Can't create " + dir);
+		}
+
+		String fileName = fileName(name);
+		logChannel = new RandomAccessFile(new File(dir, fileName + ".log"), "rw").getChannel();
+		indexChannel = new RandomAccessFile(new File(dir, fileName + ".idx"), "rw").getChannel();
+
+		index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(indexChannel.size(), INDEX_HEADER + 8 * 1024));
+		size = index.getInt(4) == VERSION ? index.getInt(0) : 0;
+		index.putInt(4, VERSION);
+
+		if (size > 0) {
+			int last = offset(size - 1);
+			log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, logChannel.size());
+			logEnd = last + RECORD_HEADER + log.getInt(last);
+		} else {
+			log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(logChannel.size(), 64 * 1024));
+		}
+
+		for (int i = 0; i < CACHE_SIZE; i++) {
+			cached[i] = -1;
+		}
+	}
+
+	@Override
+	public void add(ScrollbackLine line) {
+		if (append(line)) {
+			fireIntervalAdded(this, size - 1, size - 1);
+		}
+	}
+
+	@Override
+	public void addAll(List<ScrollbackLine> lines) {
+		int before = size;
+		for (ScrollbackLine line : lines) {
+			append(line);
+		}
+
+		if (size > before) {
+			fireIntervalAdded(this, before, size - 1);
+		}
+	}
+
+	/**
+	 * Writes a line to the log.
+	 *
+	 * @return Whether it could be written; never once closed.
+	 */
+	private boolean append(ScrollbackLine line) {
+		if (closed) {
+			return false;
+		}
+
+		byte[] nick = bytes(line.nick);
+		byte[] target = bytes(line.target);
+		byte[] text = bytes(line.text);
+		int length = length(nick) + length(target) + length(text);
+
+		try {
+			ensureCapacity(logEnd + RECORD_HEADER + length, INDEX_HEADER + 8 * (size + 1));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+
+		log.putInt(logEnd, length);
+		log.putLong(logEnd + 4, line.time);
+		log.put(logEnd + 12, (byte) (line.kind.ordinal() | (line.highlighted ? HIGHLIGHTED : 0)));
+		log.position(logEnd + RECORD_HEADER);
+		put(nick);
+		put(target);
+		put(text);
+
+		// Count last, so a half written line is never counted
+		index.putLong(INDEX_HEADER + 8 * size, logEnd);
+		index.putInt(0, size + 1);
+
+		logEnd += RECORD_HEADER + length;
+		cache(size, line);
+		size++;
+		return true;
+	}
+
+	@Override
+	public ScrollbackLine getLine(int i) {
+		int slot = i & (CACHE_SIZE - 1);
+		if (cached[slot] == i) {
+			return cache[slot];
+		}
+
+		int offset = offset(i);
+		long time = log.getLong(offset + 4);
+		byte kind = log.get(offset + 12);
+
+		ByteBuffer record = log.duplicate();
+		record.position(offset + RECORD_HEADER);
+		String nick = get(record);
+		String target = get(record);
+		String text = get(record);
+
+		ScrollbackLine line = new ScrollbackLine(time, ScrollbackLine.Kind.values()[kind & ~HIGHLIGHTED], nick, target, text,
+				(kind & HIGHLIGHTED) != 0);
+		cache(i, line);
+		return line;
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public Object getElementAt(int i) {
+		return getLine(i);
+	}
+
+	/**
+	 * Writes everything out and closes the files. Lines added after this
+	 * are dropped.
+	 */
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			log.force();
+			index.force();
+			logChannel.close();
+			indexChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private int offset(int i) {
+		return (int) index.getLong(INDEX_HEADER + 8 * i);
+	}
+
+	private static byte[] bytes(String s) {
+		return s == null ? null : s.getBytes(UTF8);
+	}
+
+	private static int length(byte[] bytes) {
+		return 4 + (bytes == null ? 0 : bytes.length);
+	}
+
+	/**
+	 * Writes a string at the log's position; -1 for null.
+	 */
+	private void put(byte[] bytes) {
+		if (bytes == null) {
+			log.putInt(-1);
+		} else {
+			log.putInt(bytes.length);
+			log.put(bytes);
+		}
+	}
+
+	private static String get(ByteBuffer record) {
+		int length = record.getInt();
+		if (length == -1) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		record.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private void cache(int i, ScrollbackLine line) {
+		int slot = i & (CACHE_SIZE - 1);
+		cached[slot] = i;
+		cache[slot] = line;
+	}
+
+	/**
+	 * Maps more of the files, doubling them, if they're too small.
+	 */
+	private void ensureCapacity(long logSize, long indexSize) throws IOException {
+		if (logSize > log.capacity()) {
+			long capacity = Math.max(logSize, 2L * log.capacity());
+			if (capacity > Integer.MAX_VALUE) {
+				throw new IOException("Scrollback log is full");
+			}
+			log = logChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+
+		if (indexSize > index.capacity()) {
+			long capacity = Math.max(indexSize, 2L * index.capacity());
+			if (capacity > Integer.MAX_VALUE) {
+				throw new IOException("Scrollback index is full");
+			}
+			index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+		}
+	}
+
+	/**
+	 * Makes a window name safe to use as a file name; anything but letters,
+	 * digits, "." and "-" is written as %XXXX.
+	 */
+	private static String fileName(String name) {
+		StringBuilder fileName = new StringBuilder(name.length() + 8);
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '.' || c == '-') {
+				fileName.append(c);
+			} else {
+				fileName.append('%').append(String.format("%04X", (int) c));
+			}
+		}
+		return fileName.toString();
+	}
+}
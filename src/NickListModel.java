@@ -0,0 +1,184 @@
+import irc.Prefixes;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The names list: the members of the current channel, kept sorted by rank
+ * (ops, then voices, then everyone else; see Prefixes.getRank) and then by
+ * nick.
+ *
+ * Joins, parts and nick changes find their place with a binary search and
+ * fire one-row events, rather than the whole list being sorted and rebuilt.
+ * A mode or nick change that leaves a member on the same row only fires a
+ * change for that row. Must only be used on the EDT.
+ *
+ * Project: IRCClient
+ */
+public class NickListModel extends AbstractListModel {
+	/**
+	 * A member as shown in the list, eg "@nick".
+	 */
+	private static class Entry {
+		final String nick;
+		final int rank;
+		final String symbol;
+		final String display;
+
+		Entry(String nick, int rank, String symbol) {
+			this.nick = nick;
+			this.rank = rank;
+			this.symbol = symbol;
+			this.display = symbol + nick;
+		}
+
+		@Override
+		public String toString() {
+			return display;
+		}
+	}
+
+	private static final Comparator<Entry> ORDER = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry entry1, Entry entry2) {
+			if (entry1.rank != entry2.rank) {
+				return entry1.rank < entry2.rank ? -1 : 1;
+			}
+
+			int order = entry1.nick.compareToIgnoreCase(entry2.nick);
+			return order != 0 ? order : entry1.nick.compareTo(entry2.nick);
+		}
+	};
+
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+	private final HashMap<String, Entry> byNick = new HashMap<String, Entry>();
+
+	/**
+	 * Replaces the whole list, eg when switching channel.
+	 *
+	 * @param nicks    The nicks.
+	 * @param modes    Each nick's modes.
+	 * @param prefixes The server's prefixes.
+	 */
+	public void setAll(List<String> nicks, List<Integer> modes, Prefixes prefixes) {
+		int oldSize = entries.size();
+		entries.clear();
+		byNick.clear();
+		if (oldSize > 0) {
+			fireIntervalRemoved(this, 0, oldSize - 1);
+		}
+
+		for (int i = 0; i < nicks.size(); i++) {
+			int bits = modes.get(i);
+			Entry entry = new Entry(nicks.get(i), prefixes.getRank(bits), prefixes.getSymbol(bits));
+			entries.add(entry);
+			byNick.put(entry.nick, entry);
+		}
+
+		Collections.sort(entries, ORDER);
+		if (!entries.isEmpty()) {
+			fireIntervalAdded(this, 0, entries.size() - 1);
+		}
+	}
+
+	/**
+	 * Empties the list.
+	 */
+	public void clear() {
+		int oldSize = entries.size();
+		entries.clear();
+		byNick.clear();
+		if (oldSize > 0) {
+			fireIntervalRemoved(this, 0, oldSize - 1);
+		}
+	}
+
+	/**
+	 * Adds a member, or moves them if their modes changed.
+	 *
+	 * @param nick     The nick.
+	 * @param modes    The member's modes.
+	 * @param prefixes The server's prefixes.
+	 */
+	public void add(String nick, int modes, Prefixes prefixes) {
+		place(byNick.get(nick), new Entry(nick, prefixes.getRank(modes), prefixes.getSymbol(modes)));
+	}
+
+	/**
+	 * Removes a member, if they're in the list.
+	 *
+	 * @param nick The nick.
+	 */
+	public void remove(String nick) {
+		Entry entry = byNick.remove(nick);
+		if (entry == null) {
+			return;
+		}
+
+		int index = Collections.binarySearch(entries, entry, ORDER);
+		entries.remove(index);
+
+		fireIntervalRemoved(this, index, index);
+	}
+
+	/**
+	 * Moves a member to their new nick, keeping their modes.
+	 *
+	 * @param oldnick The old nick.
+	 * @param newnick The new nick.
+	 */
+	public void rename(String oldnick, String newnick) {
+		Entry entry = byNick.get(oldnick);
+		if (entry == null) {
+			return;
+		}
+
+		place(entry, new Entry(newnick, entry.rank, entry.symbol));
+	}
+
+	/**
+	 * Puts an entry in its place. If it replaces one that sorts to the same
+	 * row, the row is changed in place; otherwise the old row is removed and
+	 * the new one inserted.
+	 *
+	 * @param old   The entry being replaced, or null.
+	 * @param entry The new entry.
+	 */
+	private void place(Entry old, Entry entry) {
+		int oldIndex = -1;
+		if (old != null) {
+			byNick.remove(old.nick);
+			oldIndex = Collections.binarySearch(entries, old, ORDER);
+			entries.remove(oldIndex);
+		}
+
+		int index = -(Collections.binarySearch(entries, entry, ORDER) + 1);
+		byNick.put(entry.nick, entry);
+
+		if (index == oldIndex) {
+			entries.add(index, entry);
+			fireContentsChanged(this, index, index);
+			return;
+		}
+
+		if (oldIndex != -1) {
+			fireIntervalRemoved(this, oldIndex, oldIndex);
+		}
+		entries.add(index, entry);
+		fireIntervalAdded(this, index, index);
+	}
+
+	@Override
+	public int getSize() {
+		return entries.size();
+	}
+
+	@Override
+	public Object getElementAt(int index) {
+		return entries.get(index);
+	}
+}
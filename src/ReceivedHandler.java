@@ -4,9 +4,8 @@ import irc.events.*;
 
 import javax.swing.*;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Created with IntelliJ IDEA.
@@ -14,21 +13,125 @@ import java.util.HashMap;
  * Author: Callum Macrae
  * Created: 07/11/2013 15:31
  */
-public class ReceivedHandler implements EventListener {
-	private DefaultListModel channels;
-	private HashMap<String, DefaultListModel> content;
+public class ReceivedHandler implements EventListener, ModeListener {
+	private SidebarModel channels;
+	// Looked up from both the IRC thread and the EDT
+	private Map<String, Scrollback> content;
+	private ScrollbackPool scrollback;
 	private JList contentJList;
 	private JLabel topicBar;
-	private DefaultListModel namesList;
+	private NickListModel namesList;
 	private JFrame frame;
 
-	public ReceivedHandler(DefaultListModel channels, HashMap content, JList contentJList, JLabel topicBar, DefaultListModel namesList, JFrame frame) {
+	// Events arrive on the IRC thread; Swing is only touched through this
+	private UiUpdates ui;
+
+	// The user each open query window keeps retained, by window name. Also
+	// locked while a query window is opened, as sent messages open them
+	// from the EDT.
+	private final HashMap<String, User> queries = new HashMap<String, User>();
+
+	public ReceivedHandler(SidebarModel channels, Map<String, Scrollback> content, ScrollbackPool scrollback, JList contentJList, JLabel topicBar, NickListModel namesList, JFrame frame) {
 		this.channels = channels;
 		this.content = content;
+		this.scrollback = scrollback;
 		this.contentJList = contentJList;
 		this.topicBar = topicBar;
 		this.namesList = namesList;
 		this.frame = frame;
+		this.ui = new UiUpdates();
+	}
+
+	/**
+	 * Adds a line to a window, if it's open.
+	 *
+	 * @param window The window name.
+	 * @param line   The line.
+	 */
+	private void append(String window, ScrollbackLine line) {
+		Scrollback scrollback = content.get(window);
+		if (scrollback != null) {
+			ui.append(scrollback, line);
+		}
+	}
+
+	/**
+	 * Opens a window.
+	 *
+	 * @param window The window name.
+	 * @return The window's scrollback.
+	 */
+	private Scrollback open(final String window) {
+		Scrollback list = scrollback.create(window);
+		content.put(window, list);
+
+		ui.run(new Runnable() {
+			@Override
+			public void run() {
+				channels.add(window);
+			}
+		});
+
+		return list;
+	}
+
+	/**
+	 * Opens a query window, unless it's open already. The user is retained
+	 * while it is, so the client doesn't forget them between messages.
+	 *
+	 * @param client The client.
+	 * @param user   The user.
+	 * @return The window's scrollback.
+	 */
+	private Scrollback openQuery(Client client, User user) {
+		synchronized (queries) {
+			Scrollback query = content.get(user.nick);
+			if (query == null) {
+				query = open(user.nick);
+			}
+			if (!queries.containsKey(user.nick)) {
+				queries.put(user.nick, user);
+				client.retainUser(user);
+			}
+			return query;
+		}
+	}
+
+	/**
+	 * Closes a query window, if it's open, and releases its user.
+	 *
+	 * @param client The client.
+	 * @param nick   The window name.
+	 */
+	private void closeQuery(Client client, String nick) {
+		User user;
+		synchronized (queries) {
+			close(nick);
+			user = queries.remove(nick);
+		}
+		if (user != null) {
+			client.releaseUser(user);
+		}
+	}
+
+	/**
+	 * Closes a window, if it's open.
+	 *
+	 * @param window The window name.
+	 */
+	private void close(final String window) {
+		final Scrollback list = content.remove(window);
+		if (list == null) {
+			return;
+		}
+
+		ui.run(new Runnable() {
+			@Override
+			public void run() {
+				channels.remove(window);
+				scrollback.release(list);
+			}
+		});
 	}
 
 	/**
@@ -38,8 +141,7 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void actionReceived(ActionEvent event) {
-		DefaultListModel channelList = content.get(event.destination);
-		channelList.addElement(String.format("* %s %s", event.user.nick, event.action));
+		append(event.destination, new ScrollbackLine(ScrollbackLine.Kind.ACTION, event.user.nick, event.action, !event.highlights.isEmpty()));
 	}
 
 	/**
@@ -49,7 +151,7 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void actionSent(ActionEvent event) {
-		content.get(event.destination).addElement(String.format("* %s %s", event.client.getNick(), event.action));
+		append(event.destination, new ScrollbackLine(ScrollbackLine.Kind.ACTION, event.client.getNick(), null, event.action));
 	}
 
 	/**
@@ -64,15 +166,30 @@ public class ReceivedHandler implements EventListener {
 		if (event.us) {
 			Channel channel = event.channel;
 
-			channels.addElement(channel.name);
-			DefaultListModel list = new DefaultListModel();
-			list.addElement(String.format("You have joined %s", channel.name));
-			content.put(channel.name, list);
+			ui.append(open(channel.name), new ScrollbackLine(ScrollbackLine.Kind.JOINED, null, channel.name, null));
 			channel.switchTo();
 		} else {
-			DefaultListModel channelList = content.get(event.channel.name);
-			channelList.addElement(String.format("%s has joined %s", event.user.nick, event.channel.name));
-			updateNamesList(event.current);
+			// Ignored users still go in the names list, just without a line
+			if (!event.ignored) {
+				append(event.channel.name, new ScrollbackLine(ScrollbackLine.Kind.JOIN, event.user.nick, event.channel.name, null));
+			}
+			addName(event, event.channel, event.user);
+		}
+	}
+
+	/**
+	 * Fired when a channel's modes change. Members who were opped or voiced
+	 * are moved in the names list.
+	 *
+	 * @param event The event object.
+	 */
+	@Override
+	public void channelModeChanged(ModeEvent event) {
+		append(event.channel.name, new ScrollbackLine(ScrollbackLine.Kind.MODE, event.setter, event.channel.name, event.modes));
+
+		// Adding again re-sorts them under their new prefix
+		for (User user : event.members) {
+			addName(event, event.channel, user);
 		}
 	}
 
@@ -85,24 +202,18 @@ public class ReceivedHandler implements EventListener {
 	@Override
 	public void channelParted(PartedEvent event) {
 		if (event.us) {
-			channels.removeElement(event.channel.name);
-			content.remove(event.channel.name);
+			close(event.channel.name);
 
 			event.client.switchTo("console");
 		} else {
-			DefaultListModel channelList = content.get(event.channel.name);
-
-			String message;
 			String nick = event.user.nick;
-			if (event.partMessage.equals("")) {
-				message = String.format("%s has parted %s", nick, event.channel.name);
-			} else {
-				message = String.format("%s has parted %s (%s)", nick, event.channel.name, event.partMessage);
+			if (!event.ignored) {
+				append(event.channel.name, new ScrollbackLine(ScrollbackLine.Kind.PART, nick, event.channel.name, event.partMessage));
 			}
 
-			channelList.addElement(message);
-
-			updateNamesList(event.current);
+			if (event.getCurrent() == event.channel) {
+				removeName(event, nick);
+			}
 		}
 	}
 
@@ -113,22 +224,27 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void channelSwitched(ChannelSwitchedEvent event) {
-		String channel = event.destination;
-
-		contentJList.setModel(content.get(channel));
+		final String channel = event.destination;
+		final Scrollback list = content.get(channel);
 
 		String topic = null;
 		if (channel.startsWith("#")) {
-			topic = event.client.channels.get(channel).topic;
+			Channel chan = event.client.getState().getChannel(channel);
+			topic = chan == null ? null : chan.topic;
 		}
+		final String title = channel + (topic == null ? "" : ": " + topic);
 
-		topicBar.setText(channel + (topic == null ? "" : ": " + topic));
+		ui.run(new Runnable() {
+			@Override
+			public void run() {
+				if (list != null) {
+					contentJList.setModel(list);
+				}
+				topicBar.setText(title);
+			}
+		});
 
-		if (event.current != null) {
-			updateNamesList(event.current);
-		} else {
-			namesList.clear();
-		}
+		showNames(event.getCurrent(), event.client);
 	}
 
 	/**
@@ -155,8 +271,7 @@ public class ReceivedHandler implements EventListener {
 	@Override
 	public void lineReceived(RawEvent event) {
 //		System.out.println("Received: " + event.line);
-		DefaultListModel console = content.get("console");
-		console.addElement(event.line);
+		append("console", new ScrollbackLine(ScrollbackLine.Kind.TEXT, null, null, event.line));
 	}
 
 	/**
@@ -167,8 +282,7 @@ public class ReceivedHandler implements EventListener {
 	@Override
 	public void lineSent(RawEvent event) {
 //		System.out.println("Sent: " + event.line);
-		DefaultListModel console = content.get("console");
-		console.addElement(event.line);
+		append("console", new ScrollbackLine(ScrollbackLine.Kind.TEXT, null, null, event.line));
 	}
 
 	/**
@@ -178,8 +292,7 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void messageReceived(MessageEvent event) {
-		DefaultListModel channelList = content.get(event.channel.name);
-		channelList.addElement(String.format("<%s> %s", event.user.nick, event.message));
+		append(event.channel.name, new ScrollbackLine(ScrollbackLine.Kind.MESSAGE, event.user.nick, event.message, !event.highlights.isEmpty()));
 	}
 
 	/**
@@ -189,17 +302,11 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void messageSend(MessageEvent event) {
-		DefaultListModel list;
-
 		if (!event.destination.startsWith("#") && !content.containsKey(event.destination)) {
-			channels.addElement(event.destination);
-			list = new DefaultListModel();
-			content.put(event.destination, list);
-		} else {
-			list = content.get(event.destination);
+			openQuery(event.client, event.client.getUser(event.destination));
 		}
 
-		list.addElement(String.format("<%s> %s", event.client.getNick(), event.message));
+		append(event.destination, new ScrollbackLine(ScrollbackLine.Kind.MESSAGE, event.client.getNick(), null, event.message));
 	}
 
 	/**
@@ -211,29 +318,53 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void nickChanged(NickChangedEvent event) {
-		String message;
+		ScrollbackLine message;
 		if (event.us) {
-			message = String.format("You are now known as %s", event.newnick);
+			message = new ScrollbackLine(ScrollbackLine.Kind.OWN_NICK, event.oldnick, event.newnick, null);
 		} else {
-			message = String.format("%s is now known as %s", event.oldnick, event.newnick);
+			message = new ScrollbackLine(ScrollbackLine.Kind.NICK, event.oldnick, event.newnick, null);
 		}
 
-		for (Channel channel : event.user.channels) {
-			content.get(channel.name).addElement(message);
+		if (!event.ignored) {
+			for (Channel channel : event.user.channels) {
+				append(channel.name, message);
+			}
 		}
 
 		if (content.containsKey(event.oldnick)) {
-			DefaultListModel convo = content.get(event.oldnick);
-			convo.addElement(message);
-
-			content.remove(event.oldnick);
-			content.put(event.newnick, convo);
+			Scrollback convo;
+			synchronized (queries) {
+				convo = content.remove(event.oldnick);
+				content.put(event.newnick, convo);
+				User user = queries.remove(event.oldnick);
+				if (user != null) {
+					queries.put(event.newnick, user);
+				}
+			}
+			if (!event.ignored) {
+				ui.append(convo, message);
+			}
 
-			channels.removeElement(event.oldnick);
-			channels.addElement(event.newnick);
+			final String oldnick = event.oldnick;
+			final String newnick = event.newnick;
+			ui.run(new Runnable() {
+				@Override
+				public void run() {
+					channels.rename(oldnick, newnick);
+				}
+			});
 		}
 
-		updateNamesList(event.current);
+		if (isShown(event, event.user)) {
+			final String oldnick = event.oldnick;
+			final String newnick = event.newnick;
+			ui.run(new Runnable() {
+				@Override
+				public void run() {
+					namesList.rename(oldnick, newnick);
+				}
+			});
+		}
 	}
 
 	/**
@@ -243,18 +374,10 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void queryActionReceived(ActionEvent event) {
-		DefaultListModel query;
 		User user = event.user;
+		Scrollback query = openQuery(event.client, user);
 
-		if (content.containsKey(user.nick)) {
-			query = content.get(user.nick);
-		} else {
-			channels.addElement(user.nick);
-			query = new DefaultListModel();
-			content.put(user.nick, query);
-		}
-
-		query.addElement(String.format("* %s %s", user.nick, event.action));
+		ui.append(query, new ScrollbackLine(ScrollbackLine.Kind.ACTION, user.nick, event.action, !event.highlights.isEmpty()));
 
 		user.switchTo();
 	}
@@ -266,18 +389,10 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void queryReceived(MessageEvent event) {
-		DefaultListModel query;
 		User user = event.user;
+		Scrollback query = openQuery(event.client, user);
 
-		if (content.containsKey(user.nick)) {
-			query = content.get(user.nick);
-		} else {
-			channels.addElement(user.nick);
-			query = new DefaultListModel();
-			content.put(user.nick, query);
-		}
-
-		query.addElement(String.format("<%s> %s", user.nick, event.message));
+		ui.append(query, new ScrollbackLine(ScrollbackLine.Kind.MESSAGE, user.nick, event.message, !event.highlights.isEmpty()));
 
 		user.switchTo();
 	}
@@ -289,80 +404,106 @@ public class ReceivedHandler implements EventListener {
 	 */
 	@Override
 	public void userQuit(QuitEvent event) {
-		if (content.containsKey(event.user.nick)) {
-			content.remove(event.user.nick);
-			channels.removeElement(event.user.nick);
-		}
+		closeQuery(event.client, event.user.nick);
 
-		String message = event.quitMessage;
+		if (!event.ignored) {
+			ScrollbackLine message = new ScrollbackLine(ScrollbackLine.Kind.QUIT, event.user.nick, null, event.quitMessage);
 
-		if (message.equals("")) {
-			message = String.format("%s has quit", event.user.nick);
-		} else {
-			message = String.format("%s has quit (%s)", event.user.nick, message);
+			for (Channel channel : event.user.channels) {
+				append(channel.name, message);
+			}
 		}
 
-		for (Channel channel : event.user.channels) {
-			DefaultListModel channelList = content.get(channel.name);
-			channelList.addElement(message);
+		if (isShown(event, event.user)) {
+			removeName(event, event.user.nick);
 		}
-
-		updateNamesList(event.current);
 	}
 
 	/**
-	 * Shortcut method to update the list of names using the Channel object.
+	 * Shows the members of a channel in the names list, or empties it for
+	 * anything else.
 	 *
-	 * @param current A Channel object.
+	 * @param current The current Communicator object.
+	 * @param client  The client.
 	 */
-	private void updateNamesList(Communicator current) {
-		if (current instanceof Channel) {
-			updateNamesList(((Channel) current).nickList);
+	private void showNames(Communicator current, Client client) {
+		if (!(current instanceof Channel)) {
+			ui.run(new Runnable() {
+				@Override
+				public void run() {
+					namesList.clear();
+				}
+			});
+			return;
 		}
+
+		Roster members = ((Channel) current).members;
+		final ArrayList<String> nicks = new ArrayList<String>(members.size());
+		final ArrayList<Integer> modes = new ArrayList<Integer>(members.size());
+		for (User user : members) {
+			nicks.add(user.nick);
+			modes.add(members.getModes(user));
+		}
+
+		final Prefixes prefixes = client.getPrefixes();
+		ui.run(new Runnable() {
+			@Override
+			public void run() {
+				namesList.setAll(nicks, modes, prefixes);
+			}
+		});
 	}
 
 	/**
-	 * Updates the list of names.
+	 * Adds a member to the names list, if their channel is the one shown.
 	 *
-	 * @param names An ArrayList of channel names.
+	 * @param event   The event.
+	 * @param channel The channel they joined.
+	 * @param user    The user.
 	 */
-	private void updateNamesList(ArrayList<String> names) {
-		Collections.sort(names, new Comparator<String>() {
-			@Override
-			public int compare(String name1, String name2) {
-				if (name1.startsWith("@")) {
-					if (name2.startsWith("@")) {
-						return name1.compareToIgnoreCase(name2);
-					}
-
-					return -1;
-				}
-
-				if (name1.startsWith("+")) {
-					if (name2.startsWith("@")) {
-						return 1;
-					}
+	private void addName(IRCEvent event, Channel channel, User user) {
+		if (event.getCurrent() != channel) {
+			return;
+		}
 
-					if (name2.startsWith("+")) {
-						return name1.compareToIgnoreCase(name2);
-					}
+		final String nick = user.nick;
+		final int modes = Math.max(channel.members.getModes(user), 0);
+		final Prefixes prefixes = event.client.getPrefixes();
+		ui.run(new Runnable() {
+			@Override
+			public void run() {
+				namesList.add(nick, modes, prefixes);
+			}
+		});
+	}
 
-					return -1;
-				}
+	/**
+	 * @param event The event.
+	 * @param user  A user.
+	 * @return Whether the user is in the channel shown.
+	 */
+	private boolean isShown(IRCEvent event, User user) {
+		Communicator current = event.getCurrent();
+		return current instanceof Channel && user.channels.contains((Channel) current);
+	}
 
-				if (name2.startsWith("@") || name2.startsWith("+")) {
-					return 1;
-				}
+	/**
+	 * Removes a member from the names list, if they were in the channel
+	 * shown.
+	 *
+	 * @param event The event.
+	 * @param nick  The nick.
+	 */
+	private void removeName(IRCEvent event, final String nick) {
+		if (!(event.getCurrent() instanceof Channel)) {
+			return;
+		}
 
-				return name1.compareToIgnoreCase(name2);
+		ui.run(new Runnable() {
+			@Override
+			public void run() {
+				namesList.remove(nick);
 			}
 		});
-
-		namesList.clear();
-		for (String name : names) {
-			if (!name.equals("")) {
-				namesList.addElement(name);
-			}
-		}
 	}
 }
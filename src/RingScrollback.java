@@ -0,0 +1,158 @@
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * The scrollback of one window: a ListModel over a ring buffer of the most
+ * recent lines.
+ *
+ * Once the window's limit is reached each new line replaces the oldest one,
+ * and the list is told with one single-row interval event for the removal
+ * and one for the addition, so adding a line costs the same however long
+ * the scrollback is. The buffer starts small and grows up to the limit.
+ *
+ * Windows are created by a ScrollbackPool, which also enforces a limit on
+ * the lines in all windows together.
+ *
+ * Project: IRCClient
+ */
+public class RingScrollback extends AbstractListModel implements Scrollback {
+	private final ScrollbackPool pool;
+	private final int limit;
+
+	private ScrollbackLine[] lines = new ScrollbackLine[16];
+	// From the pool, to find the oldest line across windows
+	private long[] sequences = new long[16];
+	private int head = 0;
+	private int size = 0;
+
+	// Set once the pool has let go of the window
+	boolean released = false;
+
+	// Lines dropped during addAll(), which fires one event for them all
+	private boolean batching = false;
+	private int batchRemoved;
+
+	/**
+	 * @param pool  The pool this window belongs to.
+	 * @param limit The most lines to keep.
+	 */
+	RingScrollback(ScrollbackPool pool, int limit) {
+		this.pool = pool;
+		this.limit = limit;
+	}
+
+	/**
+	 * Adds a line to the end of the scrollback, dropping the oldest line if
+	 * the window or the pool is full.
+	 *
+	 * @param line The line.
+	 */
+	@Override
+	public void add(ScrollbackLine line) {
+		append(line);
+		fireIntervalAdded(this, size - 1, size - 1);
+	}
+
+	@Override
+	public void addAll(List<ScrollbackLine> lines) {
+		int before = size;
+		batching = true;
+		batchRemoved = 0;
+		try {
+			for (ScrollbackLine line : lines) {
+				append(line);
+			}
+		} finally {
+			batching = false;
+		}
+
+		// Old lines dropped, then whichever new lines survived
+		int oldRemoved = Math.min(batchRemoved, before);
+		if (oldRemoved > 0) {
+			fireIntervalRemoved(this, 0, oldRemoved - 1);
+		}
+
+		int added = size - (before - oldRemoved);
+		if (added > 0) {
+			fireIntervalAdded(this, size - added, size - 1);
+		}
+	}
+
+	private void append(ScrollbackLine line) {
+		if (size == limit) {
+			removeFirst();
+		} else if (size == lines.length) {
+			grow();
+		}
+
+		int index = (head + size) % lines.length;
+		lines[index] = line;
+		sequences[index] = pool.nextSequence();
+		size++;
+		if (!released) {
+			pool.added(this);
+		}
+	}
+
+	/**
+	 * Drops the oldest line.
+	 */
+	void removeFirst() {
+		if (size == 0) {
+			return;
+		}
+
+		lines[head] = null;
+		head = (head + 1) % lines.length;
+		size--;
+		if (!released) {
+			pool.removed(this);
+		}
+
+		if (batching) {
+			batchRemoved++;
+		} else {
+			fireIntervalRemoved(this, 0, 0);
+		}
+	}
+
+	/**
+	 * @return The pool sequence number of the oldest line, or
+	 *         Long.MAX_VALUE if there are none.
+	 */
+	long firstSequence() {
+		return size == 0 ? Long.MAX_VALUE : sequences[head];
+	}
+
+	@Override
+	public ScrollbackLine getLine(int index) {
+		return lines[(head + index) % lines.length];
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public Object getElementAt(int index) {
+		return getLine(index);
+	}
+
+	/**
+	 * Doubles the buffer (up to the limit), unrolling the ring.
+	 */
+	private void grow() {
+		int capacity = Math.min(lines.length * 2, limit);
+		ScrollbackLine[] grownLines = new ScrollbackLine[capacity];
+		long[] grownSequences = new long[capacity];
+		int firstPart = Math.min(size, lines.length - head);
+		System.arraycopy(lines, head, grownLines, 0, firstPart);
+		System.arraycopy(lines, 0, grownLines, firstPart, size - firstPart);
+		System.arraycopy(sequences, head, grownSequences, 0, firstPart);
+		System.arraycopy(sequences, 0, grownSequences, firstPart, size - firstPart);
+		lines = grownLines;
+		sequences = grownSequences;
+		head = 0;
+	}
+}
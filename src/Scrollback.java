@@ -0,0 +1,33 @@
+import javax.swing.*;
+import java.util.List;
+
+/**
+ * The lines shown in a window, as a ListModel that contentJList can use
+ * directly. Created by a ScrollbackPool.
+ *
+ * Project: IRCClient
+ */
+public interface Scrollback extends ListModel {
+	/**
+	 * Adds a line to the end.
+	 *
+	 * @param line The line.
+	 */
+	void add(ScrollbackLine line);
+
+	/**
+	 * Adds lines to the end, telling listeners with one event for the lines
+	 * added (and one for any old lines dropped to make room).
+	 *
+	 * @param lines The lines.
+	 */
+	void addAll(List<ScrollbackLine> lines);
+
+	/**
+	 * Gets a line.
+	 *
+	 * @param index The index, 0 being the oldest line kept.
+	 * @return The line.
+	 */
+	ScrollbackLine getLine(int index);
+}
@@ -0,0 +1,184 @@
+import irc.Formatting;
+
+/**
+ * A line in a window's scrollback, kept as what happened rather than as
+ * display text: the kind of line, who, and the rest. The nick and target are
+ * the strings already held by the User and Channel, so a line costs little
+ * more than its text.
+ *
+ * Nothing is formatted until the line is shown; see LineRenderer. The
+ * first time, the line's mIRC codes are parsed and the result is kept with
+ * the line.
+ *
+ * Project: IRCClient
+ */
+public class ScrollbackLine {
+	/**
+	 * What a line records, and how it is shown.
+	 */
+	public enum Kind {
+		/**
+		 * A raw line to or from the server, or any other plain text.
+		 */
+		TEXT {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append(line.text);
+			}
+		},
+		MESSAGE {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append('<').append(line.nick).append("> ").append(line.text);
+			}
+		},
+		ACTION {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append("* ").append(line.nick).append(' ').append(line.text);
+			}
+		},
+		/**
+		 * We joined target.
+		 */
+		JOINED {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append("You have joined ").append(line.target);
+			}
+		},
+		JOIN {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append(line.nick).append(" has joined ").append(line.target);
+			}
+		},
+		/**
+		 * nick parted target, with text as the part message.
+		 */
+		PART {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append(line.nick).append(" has parted ").append(line.target);
+				reason(line, out);
+			}
+		},
+		/**
+		 * nick quit, with text as the quit message.
+		 */
+		QUIT {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append(line.nick).append(" has quit");
+				reason(line, out);
+			}
+		},
+		/**
+		 * nick is now known as target.
+		 */
+		NICK {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append(line.nick).append(" is now known as ").append(line.target);
+			}
+		},
+		/**
+		 * We are now known as target.
+		 */
+		OWN_NICK {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append("You are now known as ").append(line.target);
+			}
+		},
+		/**
+		 * nick set modes (the text) on target.
+		 */
+		MODE {
+			@Override
+			void format(ScrollbackLine line, StringBuilder out) {
+				out.append(line.nick).append(" sets mode ").append(line.text);
+			}
+		};
+
+		abstract void format(ScrollbackLine line, StringBuilder out);
+
+		private static void reason(ScrollbackLine line, StringBuilder out) {
+			if (line.text != null && !line.text.equals("")) {
+				out.append(" (").append(line.text).append(')');
+			}
+		}
+	}
+
+	public final long time;
+	public final Kind kind;
+	public final String nick;
+	public final String target;
+	public final String text;
+	// Whether it mentions our nick or a highlight word
+	public final boolean highlighted;
+
+	// Only set and read on the EDT
+	private Formatting formatting;
+
+	/**
+	 * A line from now.
+	 *
+	 * @param kind   The kind of line.
+	 * @param nick   Who, or null.
+	 * @param target The channel or new nick, or null.
+	 * @param text   The message, or null.
+	 */
+	public ScrollbackLine(Kind kind, String nick, String target, String text) {
+		this(System.currentTimeMillis(), kind, nick, target, text, false);
+	}
+
+	/**
+	 * A message from now.
+	 *
+	 * @param kind        The kind of line.
+	 * @param nick        Who.
+	 * @param text        The message.
+	 * @param highlighted Whether it should stand out.
+	 */
+	public ScrollbackLine(Kind kind, String nick, String text, boolean highlighted) {
+		this(System.currentTimeMillis(), kind, nick, null, text, highlighted);
+	}
+
+	public ScrollbackLine(long time, Kind kind, String nick, String target, String text, boolean highlighted) {
+		this.time = time;
+		this.kind = kind;
+		this.nick = nick;
+		this.target = target;
+		this.text = text;
+		this.highlighted = highlighted;
+	}
+
+	/**
+	 * Formats the line for display. Not cached; LineRenderer caches the
+	 * lines that are on screen.
+	 *
+	 * @return The display text.
+	 */
+	public String format() {
+		StringBuilder out = new StringBuilder(64);
+		kind.format(this, out);
+		return out.toString();
+	}
+
+	/**
+	 * @return The display text with its mIRC codes parsed out. Parsed the
+	 *         first time, then kept.
+	 */
+	public Formatting getFormatting() {
+		if (formatting == null) {
+			formatting = Formatting.parse(format());
+		}
+		return formatting;
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+}
@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Creates the scrollback for each window.
+ *
+ * By default windows keep their lines in memory, in a RingScrollback, and
+ * the pool keeps the total number of lines in all of them under a limit, so
+ * that a client left running on busy channels doesn't slowly fill the heap.
+ * When the total limit is reached the oldest line in any window is dropped.
+ * The limits can be set with the irc.scrollback.window and
+ * irc.scrollback.total system properties.
+ *
+ * If the irc.scrollback.dir system property is set, windows keep their whole
+ * history in a MappedScrollback in that directory instead, and no limits
+ * apply. There is only ever one MappedScrollback per window name, counted
+ * by how many times it has been created and not yet released, as a window
+ * can be opened again (eg on rejoin) before the old one has been let go,
+ * and two of them would write over each other's files.
+ *
+ * Windows are created on the IRC thread and filled and released on the
+ * EDT, so the pool's methods are synchronized.
+ *
+ * Project: IRCClient
+ */
+public class ScrollbackPool {
+	private final int windowLimit;
+	private final int totalLimit;
+	private final File dir;
+
+	private final ArrayList<RingScrollback> windows = new ArrayList<RingScrollback>();
+	private final HashMap<String, MappedScrollback> logs = new HashMap<String, MappedScrollback>();
+	private int total = 0;
+	private long sequence = 0;
+
+	/**
+	 * Uses the settings from the system properties, or 5000 lines per window
+	 * and 100000 altogether in memory.
+	 */
+	public ScrollbackPool() {
+		this(Integer.getInteger("irc.scrollback.window", 5000), Integer.getInteger("irc.scrollback.total", 100000),
+				System.getProperty("irc.scrollback.dir") == null ? null : new File(System.getProperty("irc.scrollback.dir")));
+	}
+
+	/**
+	 * @param windowLimit The most lines to keep in one window.
+	 * @param totalLimit  The most lines to keep in all windows.
+	 * @param dir         The directory to keep logs in, or null to keep
+	 *                    scrollback in memory.
+	 */
+	public ScrollbackPool(int windowLimit, int totalLimit, File dir) {
+		this.windowLimit = windowLimit;
+		this.totalLimit = totalLimit;
+		this.dir = dir;
+	}
+
+	/**
+	 * Creates the scrollback for a window. If its log can't be opened the
+	 * window falls back to memory.
+	 *
+	 * @param name The window name, eg "#channel".
+	 * @return The window's scrollback.
+	 */
+	public synchronized Scrollback create(String name) {
+		if (dir != null) {
+			MappedScrollback log = logs.get(name);
+			if (log != null) {
+				log.references++;
+				return log;
+			}
+
+			try {
+				log = new MappedScrollback(dir, name);
+				log.references = 1;
+				logs.put(name, log);
+				return log;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		RingScrollback window = new RingScrollback(this, windowLimit);
+		windows.add(window);
+		return window;
+	}
+
+	/**
+	 * Lets go of a window that has been closed, freeing its lines (or
+	 * closing its log, once nothing else has it open).
+	 *
+	 * @param window The window's scrollback.
+	 */
+	public synchronized void release(Scrollback window) {
+		if (window instanceof MappedScrollback) {
+			MappedScrollback log = (MappedScrollback) window;
+			if (--log.references == 0) {
+				logs.values().remove(log);
+				log.close();
+			}
+		} else if (windows.remove(window)) {
+			((RingScrollback) window).released = true;
+			total -= window.getSize();
+		}
+	}
+
+	/**
+	 * @return The number of lines in all windows kept in memory.
+	 */
+	public synchronized int getTotal() {
+		return total;
+	}
+
+	synchronized long nextSequence() {
+		return sequence++;
+	}
+
+	synchronized void added(RingScrollback window) {
+		total++;
+
+		while (total > totalLimit) {
+			RingScrollback oldest = null;
+			long oldestSequence = Long.MAX_VALUE;
+			for (RingScrollback candidate : windows) {
+				long first = candidate.firstSequence();
+				if (first < oldestSequence) {
+					oldest = candidate;
+					oldestSequence = first;
+				}
+			}
+
+			if (oldest == null) {
+				return;
+			}
+			oldest.removeFirst();
+		}
+	}
+
+	synchronized void removed(RingScrollback window) {
+		total--;
+	}
+}
@@ -4,6 +4,8 @@ import irc.communicator.Channel;
 import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Created with IntelliJ IDEA.
@@ -29,21 +31,18 @@ public class SendHandler implements ActionListener {
 			String[] splitText = text.split(" ");
 			String command = splitText[0].substring(1);
 
-			Commands switchBy = Commands.CNF;
-			for (Commands value : Commands.values()) {
-				if (value.name().equalsIgnoreCase(command)) {
-					switchBy = value;
-					break;
-				}
-			}
-
-			switch (switchBy) {
+			switch (Commands.fromName(command)) {
 				case CS:
 					client.sendMessage("ChanServ", text.substring(4));
 					break;
 
 				case JOIN:
-					client.join(splitText[1]);
+					if (splitText.length == 2) {
+						client.join(splitText[1]);
+					} else {
+						// /join #one #two #three
+						client.join(Arrays.asList(splitText).subList(1, splitText.length));
+					}
 					break;
 
 				case ME:
@@ -82,14 +81,11 @@ public class SendHandler implements ActionListener {
 					break;
 
 				case PARTALL:
+					ArrayList<String> channels = new ArrayList<String>(client.getChannels().keySet());
 					if (splitText.length == 1) {
-						for (String channel : client.channels.keySet()) {
-							client.part(channel);
-						}
+						client.part(channels);
 					} else {
-						for (String channel : client.channels.keySet()) {
-							client.part(channel, text.substring(9));
-						}
+						client.part(channels, text.substring(9));
 					}
 					break;
 
@@ -0,0 +1,114 @@
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * The window list down the side, kept in IRC order: "console", then
+ * channels, then queries, each alphabetically.
+ *
+ * Windows are put in place with a binary search and each change fires a
+ * single one-row event. Must only be used on the EDT.
+ *
+ * Project: IRCClient
+ */
+public class SidebarModel extends AbstractListModel {
+	private static final Comparator<String> ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String window1, String window2) {
+			int group1 = group(window1);
+			int group2 = group(window2);
+			if (group1 != group2) {
+				return group1 < group2 ? -1 : 1;
+			}
+
+			int order = window1.compareToIgnoreCase(window2);
+			return order != 0 ? order : window1.compareTo(window2);
+		}
+	};
+
+	private final ArrayList<String> windows = new ArrayList<String>();
+
+	/**
+	 * Adds a window, unless it's already there.
+	 *
+	 * @param window The window name.
+	 */
+	public void add(String window) {
+		int index = Collections.binarySearch(windows, window, ORDER);
+		if (index >= 0) {
+			return;
+		}
+
+		index = -(index + 1);
+		windows.add(index, window);
+		fireIntervalAdded(this, index, index);
+	}
+
+	/**
+	 * Removes a window, if it's there.
+	 *
+	 * @param window The window name.
+	 */
+	public void remove(String window) {
+		int index = Collections.binarySearch(windows, window, ORDER);
+		if (index < 0) {
+			return;
+		}
+
+		windows.remove(index);
+		fireIntervalRemoved(this, index, index);
+	}
+
+	/**
+	 * Renames a window, eg a query when the user changes nick.
+	 *
+	 * @param oldName The old name.
+	 * @param newName The new name.
+	 */
+	public void rename(String oldName, String newName) {
+		int oldIndex = Collections.binarySearch(windows, oldName, ORDER);
+		if (oldIndex < 0) {
+			add(newName);
+			return;
+		}
+
+		windows.remove(oldIndex);
+		int newIndex = Collections.binarySearch(windows, newName, ORDER);
+		if (newIndex == -(oldIndex + 1)) {
+			// Stays in the same row
+			windows.add(oldIndex, newName);
+			fireContentsChanged(this, oldIndex, oldIndex);
+			return;
+		}
+
+		// Each event is fired as soon as the list matches it, so listeners
+		// never see a size that doesn't fit the event
+		fireIntervalRemoved(this, oldIndex, oldIndex);
+		if (newIndex >= 0) {
+			// Already had a window with the new name
+			return;
+		}
+
+		newIndex = -(newIndex + 1);
+		windows.add(newIndex, newName);
+		fireIntervalAdded(this, newIndex, newIndex);
+	}
+
+	@Override
+	public int getSize() {
+		return windows.size();
+	}
+
+	@Override
+	public Object getElementAt(int index) {
+		return windows.get(index);
+	}
+
+	private static int group(String window) {
+		if (window.equals("console")) {
+			return 0;
+		}
+		return window.startsWith("#") || window.startsWith("&") ? 1 : 2;
+	}
+}
@@ -0,0 +1,111 @@
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Gets changes from the IRC thread onto the Swing event dispatch thread
+ * without flooding it.
+ *
+ * Lines and other changes (adding a window, switching, the topic...) go
+ * into one queue, in order. Lines for a window are collected into one batch
+ * until the next other change is queued, so the lines between two changes
+ * cost a single interval event per window, and a line queued before a
+ * change is always applied before it. Everything queued is applied on the
+ * EDT at most once per frame. Can be called from any thread.
+ *
+ * Project: IRCClient
+ */
+public class UiUpdates implements ActionListener {
+	// About 60 frames a second
+	private static final int FRAME = 16;
+
+	private final Timer timer = new Timer(FRAME, this);
+
+	private final Object lock = new Object();
+	// Runnables and Batches, in the order they were queued
+	private ArrayList<Object> queue = new ArrayList<Object>();
+	// The batches queued since the last Runnable, which lines are added to
+	private final HashMap<Scrollback, Batch> open = new HashMap<Scrollback, Batch>();
+	private boolean scheduled = false;
+
+	public UiUpdates() {
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Adds a line to a window.
+	 *
+	 * @param window The window's scrollback.
+	 * @param line   The line.
+	 */
+	public void append(Scrollback window, ScrollbackLine line) {
+		synchronized (lock) {
+			Batch batch = open.get(window);
+			if (batch == null) {
+				batch = new Batch(window);
+				open.put(window, batch);
+				queue.add(batch);
+			}
+			batch.lines.add(line);
+			schedule();
+		}
+	}
+
+	/**
+	 * Runs a change on the EDT, after the changes and lines queued before
+	 * it.
+	 *
+	 * @param task The change.
+	 */
+	public void run(Runnable task) {
+		synchronized (lock) {
+			queue.add(task);
+			open.clear();
+			schedule();
+		}
+	}
+
+	private void schedule() {
+		if (!scheduled) {
+			scheduled = true;
+			timer.start();
+		}
+	}
+
+	/**
+	 * Applies everything queued. Called on the EDT by the timer.
+	 *
+	 * @param event The timer event.
+	 */
+	@Override
+	public void actionPerformed(ActionEvent event) {
+		ArrayList<Object> queue;
+
+		synchronized (lock) {
+			queue = this.queue;
+			this.queue = new ArrayList<Object>();
+			open.clear();
+			scheduled = false;
+		}
+
+		for (Object change : queue) {
+			if (change instanceof Batch) {
+				Batch batch = (Batch) change;
+				batch.window.addAll(batch.lines);
+			} else {
+				((Runnable) change).run();
+			}
+		}
+	}
+
+	private static final class Batch {
+		final Scrollback window;
+		final ArrayList<ScrollbackLine> lines = new ArrayList<ScrollbackLine>();
+
+		Batch(Scrollback window) {
+			this.window = window;
+		}
+	}
+}
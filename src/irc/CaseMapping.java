@@ -0,0 +1,124 @@
+package irc;
+
+/**
+ * How the server compares nicks and channel names, from CASEMAPPING in the
+ * 005 reply.
+ *
+ * Because of IRC's Scandinavian origin, rfc1459 treats {}|~ as the lower
+ * case versions of []\^, so "[Foo]" and "{foo}" are the same nick.
+ * strict-rfc1459 leaves out ^ and ~, and ascii only folds A-Z.
+ *
+ * Each mapping is a lookup table of folded characters, so comparing and
+ * hashing work on the original strings (or regions of a line) and never
+ * create lower case copies. Keys can be any CharSequence.
+ */
+public enum CaseMapping implements Equivalence {
+	ASCII("ascii", 'Z'),
+	RFC1459("rfc1459", '^'),
+	STRICT_RFC1459("strict-rfc1459", ']');
+
+	/**
+	 * What to assume if the server doesn't send CASEMAPPING.
+	 */
+	public static final CaseMapping DEFAULT = RFC1459;
+
+	private final String name;
+	private final char[] fold = new char[128];
+
+	/**
+	 * @param name The CASEMAPPING value.
+	 * @param last The last upper case character; [\]^ follow Z in ASCII.
+	 */
+	CaseMapping(String name, char last) {
+		this.name = name;
+		for (char c = 0; c < 128; c++) {
+			fold[c] = c >= 'A' && c <= last ? (char) (c + 32) : c;
+		}
+	}
+
+	/**
+	 * @return The CASEMAPPING value, eg "rfc1459".
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param c A character.
+	 * @return The lower case version, under this mapping.
+	 */
+	public char fold(char c) {
+		return c < 128 ? fold[c] : c;
+	}
+
+	/**
+	 * @param a A string.
+	 * @param b Another string.
+	 * @return Whether they are the same, ignoring case.
+	 */
+	public boolean equals(CharSequence a, CharSequence b) {
+		return regionEquals(a, 0, a.length(), b);
+	}
+
+	/**
+	 * Compares part of a string (usually a line) against another string.
+	 *
+	 * @param src   The string containing the region.
+	 * @param start Where the region starts.
+	 * @param end   Where the region ends.
+	 * @param value The string to compare against.
+	 * @return Whether they are the same, ignoring case.
+	 */
+	public boolean regionEquals(CharSequence src, int start, int end, CharSequence value) {
+		if (end - start != value.length()) {
+			return false;
+		}
+
+		for (int i = start, j = 0; i < end; i++, j++) {
+			char a = src.charAt(i);
+			char b = value.charAt(j);
+			if (a != b && fold(a) != fold(b)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param src   The string containing the region.
+	 * @param start Where the region starts.
+	 * @param end   Where the region ends.
+	 * @return A hash that is the same however the region is cased.
+	 */
+	public int hash(CharSequence src, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + fold(src.charAt(i));
+		}
+		return hash;
+	}
+
+	@Override
+	public int hash(Object key) {
+		CharSequence chars = (CharSequence) key;
+		return hash(chars, 0, chars.length());
+	}
+
+	@Override
+	public boolean equivalent(Object a, Object b) {
+		return equals((CharSequence) a, (CharSequence) b);
+	}
+
+	/**
+	 * @param name A CASEMAPPING value.
+	 * @return The mapping, or DEFAULT if it isn't one we know.
+	 */
+	public static CaseMapping fromName(String name) {
+		for (CaseMapping mapping : values()) {
+			if (mapping.name.equalsIgnoreCase(name)) {
+				return mapping;
+			}
+		}
+		return DEFAULT;
+	}
+}
@@ -0,0 +1,87 @@
+package irc;
+
+/**
+ * The channel modes a server supports, from CHANMODES in the 005 reply, eg
+ * "beI,k,l,imnpst".
+ *
+ * The four groups are list modes (bans and the like), modes that always
+ * take a parameter (the key), modes that only take one when set (the
+ * limit), and plain flags. Modes other than list modes are stored as a
+ * long bitset: bit 0 is the first mode after the list modes, bit 1 the next
+ * and so on.
+ */
+public class ChanModes {
+	/**
+	 * What to assume if the server doesn't send CHANMODES.
+	 */
+	public static final ChanModes DEFAULT = new ChanModes("beI,k,l,imnpst");
+
+	public static final int LIST = 0;
+	public static final int ALWAYS_PARAM = 1;
+	public static final int SET_PARAM = 2;
+	public static final int FLAG = 3;
+
+	private final String lists;
+	// Every mode but the list modes, in bit order
+	private final String modes;
+	private final int setParamStart;
+	private final int flagStart;
+
+	/**
+	 * @param value The CHANMODES value.
+	 */
+	public ChanModes(String value) {
+		String[] groups = value.split(",", -1);
+		lists = groups.length > 0 ? groups[0] : "";
+		String always = groups.length > 1 ? groups[1] : "";
+		String set = groups.length > 2 ? groups[2] : "";
+		String flags = groups.length > 3 ? groups[3] : "";
+
+		String modes = always + set + flags;
+		this.modes = modes.length() > 64 ? modes.substring(0, 64) : modes;
+		setParamStart = always.length();
+		flagStart = always.length() + set.length();
+	}
+
+	/**
+	 * @param mode A mode letter.
+	 * @return LIST, ALWAYS_PARAM, SET_PARAM or FLAG. Modes we don't know are
+	 *         taken to be flags.
+	 */
+	public int getType(char mode) {
+		if (lists.indexOf(mode) != -1) {
+			return LIST;
+		}
+
+		int index = modes.indexOf(mode);
+		if (index == -1 || index >= flagStart) {
+			return FLAG;
+		}
+		return index >= setParamStart ? SET_PARAM : ALWAYS_PARAM;
+	}
+
+	/**
+	 * @param mode A mode letter, eg 'n'.
+	 * @return Its bit, or 0 if it's a list mode or one we don't know.
+	 */
+	public long bitForMode(char mode) {
+		int index = modes.indexOf(mode);
+		return index == -1 ? 0 : 1L << index;
+	}
+
+	/**
+	 * @param bit A mode's bit.
+	 * @return Its letter.
+	 */
+	public char modeForBit(long bit) {
+		return modes.charAt(Long.numberOfTrailingZeros(bit));
+	}
+
+	/**
+	 * @param mode A mode letter.
+	 * @return Whether it's a list mode, eg 'b'.
+	 */
+	public boolean isList(char mode) {
+		return lists.indexOf(mode) != -1;
+	}
+}
@@ -2,9 +2,20 @@ package irc;
 import irc.communicator.*;
 import irc.events.*;
 
-import java.io.*;
-import java.net.Socket;
+import irc.net.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * An IRC library.
@@ -15,31 +26,72 @@ import java.util.HashMap;
 public class Client {
 
 	// Socket variables
-	private Socket socket;
-	private PrintWriter pout;
-	private BufferedReader bin;
-
-	// List variables
-	public HashMap<String, Channel> channels = new HashMap<String, Channel>();
-	public HashMap<String, User> users = new HashMap<String, User>();
+	private Transport transport;
+	// Replaced on reconnect, as a closed queue drops everything added to it
+	private volatile SendQueue sendQueue = new SendQueue();
+	private FloodControl floodControl = FloodControl.RFC1459;
+	private Charset charset = Charset.forName("UTF-8");
+	private volatile boolean disconnected = false;
+
+	// How long quit() waits for QUIT to be written before giving up, in ms
+	private static final long QUIT_TIMEOUT = 1500;
+
+	// List variables. Replaced, never changed, so readers need no lock
+	private volatile ClientState state = ClientState.EMPTY;
+	private final Object stateLock = new Object();
+	private final IdentityHashMap<User, Integer> retained = new IdentityHashMap<User, Integer>();
+	private long evictedUsers = 0;
 	private HashMap<String, String> serverInfo = new HashMap<String, String>();
+	private Prefixes prefixes = Prefixes.DEFAULT;
+	private ChanModes chanModes = ChanModes.DEFAULT;
+	// Whether to ask for each channel's modes and ban list on join
+	private volatile boolean trackChannelModes = false;
+	// Ban, exception and invite lists being received, by mode and channel.
+	// Locked on itself, as it is cleared from whichever thread disconnects.
+	private final HashMap<String, List<Mask>> pendingLists = new HashMap<String, List<Mask>>();
+
+	// Rebuilt whenever the words, our nick or the case mapping change
+	private volatile Highlighter highlighter = Highlighter.NONE;
+	private final Object highlightLock = new Object();
+	private List<String> highlightWords = new ArrayList<String>();
+	private boolean highlightWholeWords = false;
+
+	// Checked straight after parsing, before any handler runs
+	private volatile IgnoreList ignores = IgnoreList.EMPTY;
+	private final Object ignoreLock = new Object();
+	private final AtomicLongArray ignored = new AtomicLongArray(IgnoreType.values().length);
+	// Set while handling a JOIN, PART, QUIT or NICK from someone ignored.
+	// Their events still fire, marked ignored, so listeners can keep their
+	// member lists right without showing anything.
+	private boolean quiet = false;
 
 	// Connection information variables
 	private String host;
 	private int port;
 	private String user;
-	private String nick;
+	private volatile String nick;
 	private String realname;
 
 	private String defaultQuitMessage = "$user$";
 	private String defaultPartMessage = "$user$";
 
 	// Miscellaneous variables
-	private boolean connected = false;
+	private volatile boolean connected = false;
 	public String currentDestination;
 
 	public Events events = new Events();
 
+	// Reused for every received line; only touched by handleNewLine, which
+	// the transport calls from one thread at a time
+	private final IRCMessage message = new IRCMessage();
+	private final Dispatcher dispatcher = new Dispatcher();
+
+	// Idents and hosts, shared by this client's users. One pool per client,
+	// so clients on other threads never wait on each other's lock.
+	private final StringPool strings = new StringPool();
+	private final NamesAccumulator names = new NamesAccumulator();
+	private final LineRegion region = new LineRegion();
+
 	/**
 	 * Server info is specified on object creation with optional port.
 	 *
@@ -58,54 +110,134 @@ public class Client {
 	public Client(String host, int port) {
 		this.host = host;
 		this.port = port;
+
+		addDefaultHandlers();
 	}
 
 	/**
-	 * Attempt to create a socket and connect to the IRC network.
+	 * Attempt to create a socket and connect to the IRC network. Can be
+	 * called again after a disconnect to reconnect.
 	 *
 	 * @return Returns itself to allow method chaining.
 	 * @throws IRCException Will be thrown if an error occurs.
 	 */
 	public Client connect() throws IRCException {
-		InputStream in;
-		OutputStream out;
-		try {
-			socket = new Socket(host, port);
-			in = socket.getInputStream();
-			out = socket.getOutputStream();
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (transport == null) {
+			transport = new ThreadedTransport();
+		}
 
-			throw new IRCException("IOException occurred");
+		// Lines queued before the first connect are kept; after a
+		// disconnect the old queue is closed and a new one is needed
+		synchronized (this) {
+			if (sendQueue.isClosed()) {
+				SendQueue queue = new SendQueue();
+				queue.setFloodControl(floodControl);
+				sendQueue = queue;
+			}
+			disconnected = false;
 		}
-		bin = new BufferedReader(new InputStreamReader(in));
-		pout = new PrintWriter(out, true);
 
-		// Check for messages in a thread because of the while loop
-		new Thread(new Runnable() {
-			@Override
-			public void run() {
-				String line;
+		try {
+			transport.open(new InetSocketAddress(host, port), charset, sendQueue, new LineListener() {
+				@Override
+				public void linesReceived(List<String> lines) {
+					try {
+						handleNewLines(lines);
+					} catch (IRCException e) {
+						e.printStackTrace();
+						transport.close();
+					}
+				}
 
-				try {
-					while ((line = bin.readLine()) != null) {
-						handleNewLine(line);
-						Thread.sleep(5);
+				@Override
+				public void connectionClosed(Exception cause) {
+					if (cause != null) {
+						cause.printStackTrace();
 					}
-				} catch (Exception e) {
-					e.printStackTrace();
+
+					handleDisconnect();
 				}
-			}
-		}).start();
+			});
+		} catch (IOException e) {
+			e.printStackTrace();
+
+			throw new IRCException("IOException occurred");
+		}
 
 		if (nick == null || user == null || realname == null) {
 			throw new IRCException("Need more information; nick, user or realname not specified.");
 		}
 
 		// Connect if everything looks good
-		sendRaw(String.format("USER %s 8 * :%s", user, realname));
-		sendRaw("NICK " + nick);
+		// Ask for the richer NAMES formats; servers without CAP ignore these
+		queueCommand("CAP", "REQ", null, "multi-prefix", Priority.NORMAL);
+		queueCommand("CAP", "REQ", null, "userhost-in-names", Priority.NORMAL);
+		queueCommand("USER", user + " 8 *", null, realname, Priority.NORMAL);
+		queueCommand("NICK", nick, null, null, Priority.NORMAL);
+		queueCommand("CAP", "END", null, null, Priority.NORMAL);
+
+		return this;
+	}
+
+	/**
+	 * Sets how the client talks to the server. Must be called before
+	 * connect(); by default each client gets its own reader thread. See
+	 * irc.net.ConnectionManager for running many clients on few threads.
+	 *
+	 * @param transport The transport.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setTransport(Transport transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	/**
+	 * Sets the flood control used for lines that aren't urgent. Defaults to
+	 * FloodControl.RFC1459.
+	 *
+	 * @param floodControl The flood control settings.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public synchronized Client setFloodControl(FloodControl floodControl) {
+		this.floodControl = floodControl;
+		sendQueue.setFloodControl(floodControl);
+		return this;
+	}
+
+	/**
+	 * Sets whether to ask for each channel's modes and ban list when it is
+	 * joined, so that Channel.modes and Channel.isBanned() are filled in
+	 * straight away. Off by default, as it costs two lines per channel; the
+	 * modes are still tracked from MODE lines either way.
+	 *
+	 * @param track Whether to ask on join.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setTrackChannelModes(boolean track) {
+		trackChannelModes = track;
+		return this;
+	}
+
+	/**
+	 * Gets the queue of lines waiting to be sent, to check its depth and
+	 * wait times.
+	 *
+	 * @return The send queue.
+	 */
+	public SendQueue getSendQueue() {
+		return sendQueue;
+	}
 
+	/**
+	 * Sets the charset used to talk to the server. Must be called before
+	 * connect(); defaults to UTF-8.
+	 *
+	 * @param charset The charset.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setCharset(Charset charset) {
+		this.charset = charset;
 		return this;
 	}
 
@@ -125,7 +257,7 @@ public class Client {
 	 * @return Returns itself to allow method chaining.
 	 */
 	public Client setNick(String nick) {
-		sendRaw("NICK " + nick);
+		queueCommand("NICK", nick, null, null, Priority.NORMAL);
 		return this;
 	}
 
@@ -136,33 +268,87 @@ public class Client {
 	 * @return User object representing user.
 	 */
 	public User getUser(String userString) {
-		userString = userString.substring(1);
-		String[] splitString = userString.split("[!@]");
+		int start = userString.startsWith(":") ? 1 : 0;
+		int end = userString.length();
+		int hostStart = userString.indexOf('@', start);
+		int nickEnd = userString.indexOf('!', start);
+		if (nickEnd == -1 || (hostStart != -1 && nickEnd > hostStart)) {
+			nickEnd = hostStart == -1 ? end : hostStart;
+		}
 
-		User user;
+		String nick = userString.substring(start, nickEnd);
+		User user = state.getUser(nick);
+		if (user == null) {
+			// This code is unlikely to ever be ran, actually.
+			user = new User(this);
+			user.nick = nick;
 
-		if (users.containsKey(splitString[0])) {
-			user = users.get(splitString[0]);
+			putUser(user.nick, user);
+		}
 
-			if (user.user == null) {
-				user.user = splitString[1];
-			}
-			if (user.host == null) {
-				user.host = splitString[2];
-			}
+		if (hostStart == -1) {
+			fillUserHost(user, userString, nickEnd < end ? nickEnd + 1 : -1, end, -1, -1);
 		} else {
-			// This code is unlikely to ever be ran, actually.
+			fillUserHost(user, userString, nickEnd < hostStart ? nickEnd + 1 : -1, hostStart, hostStart + 1, end);
+		}
+
+		return user;
+	}
+
+	/**
+	 * Gets a user object from the prefix of a parsed line. Like getUser(String)
+	 * but reads the nick, user and host straight out of the line.
+	 *
+	 * @param message The parsed line.
+	 * @return User object representing user.
+	 */
+	private User getUser(IRCMessage message) {
+		User user = state.getUser(region.set(message.getLine(), message.getNickStart(), message.getNickEnd()));
+
+		if (user == null) {
+			String nick = message.getNick();
 			user = new User(this);
-			user.nick = splitString[0];
-			user.user = splitString[1];
-			user.host = splitString[2];
+			user.nick = nick;
 
-			users.put(user.nick, user);
+			putUser(nick, user);
 		}
 
+		fillUserHost(user, message.getLine(), message.getUserStart(), message.getUserEnd(),
+				message.getHostStart(), message.getHostEnd());
+
 		return user;
 	}
 
+	/**
+	 * Sets a user's ident and host from a line if we don't know them yet,
+	 * using the pool.
+	 *
+	 * @param user      The user.
+	 * @param src       The line.
+	 * @param userStart Where the ident starts, or -1 if there isn't one.
+	 * @param userEnd   Where the ident ends.
+	 * @param hostStart Where the host starts, or -1 if there isn't one.
+	 * @param hostEnd   Where the host ends.
+	 */
+	private void fillUserHost(User user, String src, int userStart, int userEnd, int hostStart, int hostEnd) {
+		if (user.user == null && userStart != -1) {
+			user.user = strings.acquire(src, userStart, userEnd);
+		}
+		if (user.host == null && hostStart != -1) {
+			user.host = strings.acquire(src, hostStart, hostEnd);
+		}
+	}
+
+	/**
+	 * Gives a forgotten user's ident and host back to the pool.
+	 *
+	 * @param user The user.
+	 */
+	private void releaseUserHost(User user) {
+		strings.release(user.user);
+		strings.release(user.host);
+	}
+
 	/**
 	 * Join a channel. Doesn't return the IRCChannel object because it probably
 	 * isn't populated yet; wait for the channelJoined event to be fired.
@@ -175,12 +361,81 @@ public class Client {
 			channel = '#' + channel;
 		}
 
-		sendRaw("JOIN " + channel);
-
+		// Before sending, or the reply could beat us to it
 		Channel chanInfo = new Channel(this);
 		chanInfo.name = channel;
-		channels.put(channel, chanInfo);
+		putChannel(channel, chanInfo);
+
+		queueCommand("JOIN", channel, null, null, Priority.NORMAL);
+
+		return this;
+	}
+
+	/**
+	 * Join a lot of channels. They are packed into as few JOIN lines as the
+	 * 512 byte line limit and the server's TARGMAX allow, and sent as bulk
+	 * traffic. Channels that would take us over the server's CHANLIMIT are
+	 * skipped.
+	 *
+	 * @param channelNames The channel names.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client join(Collection<String> channelNames) {
+		ArrayList<String> toJoin = new ArrayList<String>(channelNames.size());
+		HashMap<String, Integer> counts = new HashMap<String, Integer>();
 
+		for (String channel : channelNames) {
+			if (channel.charAt(0) != '#') {
+				channel = '#' + channel;
+			}
+
+			// Count each CHANLIMIT prefix group against its limit
+			String group = getChannelLimitGroup(channel.charAt(0));
+			if (group != null) {
+				Integer count = counts.get(group);
+				if (count == null) {
+					count = countJoinedChannels(group);
+				}
+				if (count >= getChannelLimit(group)) {
+					continue;
+				}
+				counts.put(group, count + 1);
+			}
+
+			toJoin.add(channel);
+
+			Channel chanInfo = new Channel(this);
+			chanInfo.name = channel;
+			putChannel(channel, chanInfo);
+		}
+
+		sendBatched("JOIN", toJoin, null);
+		return this;
+	}
+
+	/**
+	 * Parts a lot of channels using a default part message. See
+	 * part(Collection, String).
+	 *
+	 * @param channelNames The channel names.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client part(Collection<String> channelNames) {
+		part(channelNames, defaultPartMessage.replace("$user$", nick));
+		return this;
+	}
+
+	/**
+	 * Parts a lot of channels. They are packed into as few PART lines as the
+	 * 512 byte line limit and the server's TARGMAX allow, and sent as bulk
+	 * traffic.
+	 *
+	 * @param channelNames The channel names.
+	 * @param message      The message to use as part message.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client part(Collection<String> channelNames, String message) {
+		sendBatched("PART", channelNames, message);
 		return this;
 	}
 
@@ -226,522 +481,1591 @@ public class Client {
 	 * @return Returns itself to allow method chaining.
 	 */
 	public Client part(String channelName, String message) {
-		sendRaw(String.format("PART %s :%s", channelName, message));
+		queueCommand("PART", channelName, null, message, Priority.NORMAL);
 		return this;
 	}
 
 	/**
-	 * Close the IRC connection using a default quit message.
+	 * Sends a command for many targets, joining the targets with commas into
+	 * as few lines as possible.
 	 *
-	 * @return Returns itself to allow method chaining.
+	 * @param command  The command, eg "JOIN".
+	 * @param targets  The targets.
+	 * @param trailing The trailing parameter sent on every line, or null.
 	 */
-	public Client quit() {
-		quit(defaultQuitMessage.replace("$user$", nick));
-		return this;
+	private void sendBatched(String command, Collection<String> targets, String trailing) {
+		// "COMMAND targets :trailing\r\n" must fit in 512 bytes
+		int room = 512 - command.length() - 1 - 2;
+		if (trailing != null) {
+			room -= 2 + LineEncoder.utf8Length(trailing);
+		}
+
+		int targetMax = getTargetMax(command);
+		StringBuilder line = new StringBuilder();
+		int lineBytes = 0;
+		int lineTargets = 0;
+
+		for (String target : targets) {
+			int bytes = LineEncoder.utf8Length(target);
+
+			if (lineTargets > 0 && (lineTargets == targetMax || lineBytes + 1 + bytes > room)) {
+				queueCommand(command, line.toString(), null, trailing, Priority.BULK);
+				line.setLength(0);
+				lineBytes = 0;
+				lineTargets = 0;
+			}
+
+			if (lineTargets > 0) {
+				line.append(',');
+				lineBytes++;
+			}
+			line.append(target);
+			lineBytes += bytes;
+			lineTargets++;
+		}
+
+		if (lineTargets > 0) {
+			queueCommand(command, line.toString(), null, trailing, Priority.BULK);
+		}
 	}
 
 	/**
-	 * Close the IRC connection.
+	 * Gets the most targets the server accepts on one line for a command,
+	 * from TARGMAX (eg "JOIN:,PART:1,PRIVMSG:4") in the server info.
 	 *
-	 * @param message Quit message to use.
-	 * @return Returns itself to allow method chaining.
+	 * @param command The command.
+	 * @return The limit, or Integer.MAX_VALUE if there is none.
 	 */
-	public Client quit(String message) {
-		sendRaw("QUIT :" + message);
-		try {
-			socket.close();
-		} catch (IOException e) {
-			e.printStackTrace();
+	private int getTargetMax(String command) {
+		String targetMax = serverInfo.get("TARGMAX");
+		if (targetMax == null) {
+			return Integer.MAX_VALUE;
 		}
 
-		// Fire disconnected event
-		events.fire("disconnected");
+		for (String entry : targetMax.split(",")) {
+			int colon = entry.indexOf(':');
+			if (colon != -1 && entry.substring(0, colon).equalsIgnoreCase(command) && colon + 1 < entry.length()) {
+				return Integer.parseInt(entry.substring(colon + 1));
+			}
+		}
 
-		return this;
+		return Integer.MAX_VALUE;
 	}
 
 	/**
-	 * Send an action to a Communicator object (a user or channel).
+	 * Finds the CHANLIMIT group (eg "#&" from "#&:50,+:10") that a channel
+	 * prefix is counted in.
 	 *
-	 * @param destination Communicator object representing the destination
-	 *                    to send the action to.
-	 * @param action     The action to send.
-	 * @return Returns itself to allow method chaining.
+	 * @param prefix The first character of the channel name.
+	 * @return The group of prefixes, or null if the prefix has no limit.
 	 */
-	public Client sendAction(Communicator destination, String action) {
-		sendAction(destination.getName(), action);
-		return this;
+	private String getChannelLimitGroup(char prefix) {
+		String chanLimit = serverInfo.get("CHANLIMIT");
+		if (chanLimit == null) {
+			return serverInfo.containsKey("MAXCHANNELS") ? "" : null;
+		}
+
+		for (String entry : chanLimit.split(",")) {
+			int colon = entry.indexOf(':');
+			if (colon != -1 && entry.substring(0, colon).indexOf(prefix) != -1 && colon + 1 < entry.length()) {
+				return entry.substring(0, colon);
+			}
+		}
+
+		return null;
 	}
 
 	/**
-	 * Send an action to the current destination (the currently open window).
-	 *
-	 * @param action The action to send.
-	 * @return Returns itself to allow method chaining.
+	 * @param group A group from getChannelLimitGroup().
+	 * @return The most channels in that group we may be in.
 	 */
-	public Client sendAction(String action) {
-		sendAction(currentDestination, action);
-		return this;
+	private int getChannelLimit(String group) {
+		if (group.equals("")) {
+			return Integer.parseInt(serverInfo.get("MAXCHANNELS"));
+		}
+
+		for (String entry : serverInfo.get("CHANLIMIT").split(",")) {
+			if (entry.startsWith(group + ":")) {
+				return Integer.parseInt(entry.substring(group.length() + 1));
+			}
+		}
+
+		return Integer.MAX_VALUE;
 	}
 
 	/**
-	 * Send an action to a channel or user.
-	 *
-	 * @param destination The channel or user to send to.
-	 * @param action     The action to send.
-	 * @return Returns itself to allow method chaining.
+	 * @param group A group from getChannelLimitGroup().
+	 * @return How many channels in that group we are in.
 	 */
-	public Client sendAction(String destination, String action) {
-		sendRaw(String.format("PRIVMSG %s :\u0001ACTION %s\u0001", destination, action));
-
-		ActionEvent event = new ActionEvent(this);
-		event.user = users.get(nick);
-		event.destination = destination;
-		event.action = action;
+	private int countJoinedChannels(String group) {
+		int count = 0;
+		for (Channel channel : state.getChannels().values()) {
+			if (channel.joined && (group.equals("") || group.indexOf(channel.name.charAt(0)) != -1)) {
+				count++;
+			}
+		}
+		return count;
+	}
 
-		events.fire("actionSent", event);
+	/**
+	 * Gets the channels and users as they are right now. The returned state
+	 * never changes, so it can be used from any thread; call again to see
+	 * later changes.
+	 *
+	 * @return The current state.
+	 */
+	public ClientState getState() {
+		return state;
+	}
 
-		return this;
+	/**
+	 * @return The channels as they are right now, by name. See getState().
+	 */
+	public PersistentMap<String, Channel> getChannels() {
+		return state.getChannels();
 	}
 
 	/**
-	 * Send a message to a Communicator object (a user or channel).
-	 *
-	 * @param destination Communicator object representing the destination
-	 *                    to send the message to.
-	 * @param message     The message to send.
-	 * @return Returns itself to allow method chaining.
+	 * @return How the server compares nicks and channel names, from
+	 *         CASEMAPPING in the server info.
 	 */
-	public Client sendMessage(Communicator destination, String message) {
-		sendMessage(destination.getName(), message);
-		return this;
+	public CaseMapping getCaseMapping() {
+		return state.getCaseMapping();
 	}
 
 	/**
-	 * Send a message to the current destination (the currently open window).
+	 * Looks up the channel named by a parameter without creating a string.
 	 *
-	 * @param message The message to send.
-	 * @return Returns itself to allow method chaining.
+	 * @param message The parsed line.
+	 * @param index   The parameter holding the channel name.
+	 * @return The channel, or null if we don't know it.
 	 */
-	public Client sendMessage(String message) {
-		sendMessage(currentDestination, message);
-		return this;
+	private Channel getChannel(IRCMessage message, int index) {
+		if (index >= message.getParamCount()) {
+			return null;
+		}
+		return state.getChannel(region.set(message.getLine(), message.getParamStart(index), message.getParamEnd(index)));
 	}
 
 	/**
-	 * Send a message to a channel or user.
-	 *
-	 * @param destination The channel or user to send to.
-	 * @param message     The message to send.
-	 * @return Returns itself to allow method chaining.
+	 * @return The users as they are right now, by nick. See getState().
 	 */
-	public Client sendMessage(String destination, String message) {
-		// Fire messageSend event
-		MessageEvent event = new MessageEvent(this);
-		event.destination = destination;
-		event.message = message;
-		event.user = users.get(nick);
-		event.us = true;
-		events.fire("messageSend", event);
+	public PersistentMap<String, User> getUsers() {
+		return state.getUsers();
+	}
 
-		if (!event.sendCancelled()) {
-			sendRaw(String.format("PRIVMSG %s :%s", destination, message));
+	private void putChannel(String name, Channel channel) {
+		synchronized (stateLock) {
+			state = state.withChannels(state.getChannels().with(name, channel));
 		}
+	}
 
-		return this;
+	private void putUser(String nick, User user) {
+		synchronized (stateLock) {
+			state = state.withUsers(state.getUsers().with(nick, user));
+		}
 	}
 
 	/**
-	 * Send a line of text over the socket. It will add \r\n, no need to
-	 * manually add it.
+	 * Forgets a user, eg when they quit, whether or not they were retained.
 	 *
-	 * @param line Text to send.
-	 * @return Returns itself to allow method chaining.
+	 * @param user The user.
 	 */
-	public Client sendRaw(String line) {
-		pout.write(line + "\r\n");
-		pout.flush();
-
-		// Fire lineSent event
-		RawEvent rawEvent = new RawEvent(this);
-		rawEvent.line = line;
-		events.fire("lineSent", rawEvent);
-
-		return this;
+	private void removeUser(User user) {
+		synchronized (stateLock) {
+			retained.remove(user);
+			if (state.getUser(user.nick) == user) {
+				state = state.withUsers(state.getUsers().without(user.nick));
+				releaseUserHost(user);
+			}
+		}
 	}
 
 	/**
-	 * Sets the default part message.
+	 * Forgets a user if we no longer share a channel with them, nothing has
+	 * retained them and they aren't us.
 	 *
-	 * @param message The message to set as default.
-	 * @return Returns itself to allow method chaining.
+	 * @param user The user.
 	 */
-	public Client setDefaultPartMessage(String message) {
-		defaultPartMessage = message;
-		return this;
+	private void evictIfUnused(User user) {
+		if (!user.channels.isEmpty()) {
+			return;
+		}
+
+		synchronized (stateLock) {
+			if (!user.channels.isEmpty() || retained.containsKey(user) || getCaseMapping().equals(user.nick, nick)) {
+				return;
+			}
+			if (state.getUser(user.nick) == user) {
+				state = state.withUsers(state.getUsers().without(user.nick));
+				releaseUserHost(user);
+				evictedUsers++;
+			}
+		}
 	}
 
 	/**
-	 * Sets the default quit message.
+	 * Keeps a user known to the client even when we share no channels with
+	 * them, eg while a query window with them is open. Users are otherwise
+	 * forgotten once they leave the last channel we share. Every call must
+	 * be matched by a call to releaseUser().
 	 *
-	 * @param message The message to set as default.
+	 * @param user The user.
 	 * @return Returns itself to allow method chaining.
 	 */
-	public Client setDefaultQuitMessage(String message) {
-		defaultQuitMessage = message;
+	public Client retainUser(User user) {
+		synchronized (stateLock) {
+			Integer count = retained.get(user);
+			retained.put(user, count == null ? 1 : count + 1);
+		}
 		return this;
 	}
 
 	/**
-	 * Set user info ready for connection.
+	 * Undoes a retainUser(). The user is forgotten if nothing else needs them.
 	 *
-	 * @param nick     Nickname to use.
-	 * @param user     User / ident to use.
-	 * @param realname Real nick to use.
+	 * @param user The user.
 	 * @return Returns itself to allow method chaining.
 	 */
-	public Client setUserInfo(String nick, String user, String realname) {
-		this.nick = nick;
-		this.user = user;
-		this.realname = realname;
+	public Client releaseUser(User user) {
+		synchronized (stateLock) {
+			Integer count = retained.get(user);
+			if (count == null) {
+				return this;
+			} else if (count > 1) {
+				retained.put(user, count - 1);
+				return this;
+			}
+			retained.remove(user);
+		}
 
+		evictIfUnused(user);
 		return this;
 	}
 
 	/**
-	 * Switches to the specified user or channel.
-	 *
-	 * @param destination The Communicator object for the user or channel to
-	 *                    switch to.
+	 * @return The number of users the client knows about.
+	 */
+	public int getUserCount() {
+		return state.getUsers().size();
+	}
+
+	/**
+	 * @return How many users have been forgotten because we no longer shared
+	 *         a channel with them.
+	 */
+	public long getEvictedUserCount() {
+		synchronized (stateLock) {
+			return evictedUsers;
+		}
+	}
+
+	private void renameUser(String oldnick, String newnick, User user) {
+		synchronized (stateLock) {
+			state = state.withUsers(state.getUsers().without(oldnick).with(newnick, user));
+		}
+	}
+
+	/**
+	 * Gets the channel member prefixes the server supports.
+	 *
+	 * @return The prefixes, from PREFIX in the server info.
+	 */
+	public Prefixes getPrefixes() {
+		return prefixes;
+	}
+
+	/**
+	 * Sets the words to highlight messages for, as well as our nick.
+	 * Matches are attached to MessageEvent.highlights and
+	 * ActionEvent.highlights.
+	 *
+	 * @param words      The words.
+	 * @param wholeWords Whether they must appear as whole words. Our nick
+	 *                   always must.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setHighlightWords(Collection<String> words, boolean wholeWords) {
+		synchronized (highlightLock) {
+			highlightWords = new ArrayList<String>(words);
+			highlightWholeWords = wholeWords;
+			rebuildHighlighter();
+		}
+		return this;
+	}
+
+	/**
+	 * @return The words to highlight messages for, not including our nick.
+	 */
+	public List<String> getHighlightWords() {
+		synchronized (highlightLock) {
+			return new ArrayList<String>(highlightWords);
+		}
+	}
+
+	/**
+	 * @return What messages are currently checked with.
+	 */
+	public Highlighter getHighlighter() {
+		return highlighter;
+	}
+
+	private void rebuildHighlighter() {
+		synchronized (highlightLock) {
+			highlighter = Highlighter.compile(nick, highlightWords, highlightWholeWords, getCaseMapping());
+		}
+	}
+
+	/**
+	 * Ignores everything from a mask.
+	 *
+	 * @param mask The mask, eg "*!*@*.example.com". See Mask.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client ignore(String mask) {
+		return ignore(mask, EnumSet.allOf(IgnoreType.class));
+	}
+
+	/**
+	 * Ignores some kinds of line from a mask. Messages, CTCPs and notices
+	 * are dropped as soon as they are parsed; joins, parts, quits and nick
+	 * changes still keep channel members right, and fire their events with
+	 * ignored set so listeners can too. Nothing we send ourselves is
+	 * ignored.
+	 *
+	 * @param mask  The mask, eg "*!*@*.example.com". See Mask.
+	 * @param types What to ignore. Replaces what was ignored from the mask.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client ignore(String mask, Set<IgnoreType> types) {
+		synchronized (ignoreLock) {
+			ignores = ignores.with(new Mask(mask), types);
+		}
+		return this;
+	}
+
+	/**
+	 * Stops ignoring a mask.
+	 *
+	 * @param mask The mask, as it was given to ignore().
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client unignore(String mask) {
+		synchronized (ignoreLock) {
+			ignores = ignores.without(new Mask(mask));
+		}
+		return this;
+	}
+
+	/**
+	 * @return The masks being ignored.
+	 */
+	public IgnoreList getIgnoreList() {
+		return ignores;
+	}
+
+	/**
+	 * @param type A kind of line.
+	 * @return How many lines of that kind have been ignored.
+	 */
+	public long getIgnoredCount(IgnoreType type) {
+		return ignored.get(type.ordinal());
+	}
+
+	/**
+	 * Gets the channel modes the server supports.
+	 *
+	 * @return The modes, from CHANMODES in the server info.
+	 */
+	public ChanModes getChanModes() {
+		return chanModes;
+	}
+
+	/**
+	 * Gets a value from the server info (the 005 reply), eg "NICKLEN".
+	 *
+	 * @param key The key.
+	 * @return The value, "" for tokens without a value, or null if the
+	 *         server didn't send it.
+	 */
+	public String getServerInfo(String key) {
+		return serverInfo.get(key);
+	}
+
+	/**
+	 * Close the IRC connection using a default quit message.
+	 *
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client quit() {
+		quit(defaultQuitMessage.replace("$user$", nick));
+		return this;
+	}
+
+	/**
+	 * Close the IRC connection. Waits briefly for QUIT to be written, so the
+	 * caller can exit straight after and still leave with its quit message.
+	 * Does nothing if the client has disconnected and not connected again.
+	 *
+	 * @param message Quit message to use.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client quit(String message) {
+		if (disconnected) {
+			return this;
+		}
+
+		QueuedLine line = queueCommand("QUIT", null, null, message, Priority.URGENT);
+		if (transport != null) {
+			transport.close();
+		}
+
+		try {
+			line.await(QUIT_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		handleDisconnect();
+
+		return this;
+	}
+
+	/**
+	 * Send an action to a Communicator object (a user or channel).
+	 *
+	 * @param destination Communicator object representing the destination
+	 *                    to send the action to.
+	 * @param action     The action to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendAction(Communicator destination, String action) {
+		sendAction(destination.getName(), action);
+		return this;
+	}
+
+	/**
+	 * Send an action to the current destination (the currently open window).
+	 *
+	 * @param action The action to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendAction(String action) {
+		sendAction(currentDestination, action);
+		return this;
+	}
+
+	/**
+	 * Send an action to a channel or user.
+	 *
+	 * @param destination The channel or user to send to.
+	 * @param action     The action to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendAction(String destination, String action) {
+		queueCommand("PRIVMSG", destination, "ACTION", action, Priority.NORMAL);
+
+		if (events.hasListeners(EventType.ACTION_SENT)) {
+			ActionEvent event = new ActionEvent(this);
+			event.user = state.getUser(nick);
+			event.destination = destination;
+			event.action = action;
+
+			events.fire(EventType.ACTION_SENT, event);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Send a message to a Communicator object (a user or channel).
+	 *
+	 * @param destination Communicator object representing the destination
+	 *                    to send the message to.
+	 * @param message     The message to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendMessage(Communicator destination, String message) {
+		sendMessage(destination.getName(), message);
+		return this;
+	}
+
+	/**
+	 * Send a message to the current destination (the currently open window).
+	 *
+	 * @param message The message to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendMessage(String message) {
+		sendMessage(currentDestination, message);
+		return this;
+	}
+
+	/**
+	 * Send a message to a channel or user.
+	 *
+	 * @param destination The channel or user to send to.
+	 * @param message     The message to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendMessage(String destination, String message) {
+		// Fire messageSend event
+		if (events.hasListeners(EventType.MESSAGE_SEND)) {
+			MessageEvent event = new MessageEvent(this);
+			event.destination = destination;
+			event.message = message;
+			event.user = state.getUser(nick);
+			event.us = true;
+			events.fire(EventType.MESSAGE_SEND, event);
+
+			if (event.sendCancelled()) {
+				return this;
+			}
+		}
+
+		queueCommand("PRIVMSG", destination, null, message, Priority.NORMAL);
+
+		return this;
+	}
+
+	/**
+	 * Send a line of text over the socket. It will add \r\n, no need to
+	 * manually add it.
+	 *
+	 * @param line Text to send.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendRaw(String line) {
+		queueRaw(line, Priority.NORMAL);
+		return this;
+	}
+
+	/**
+	 * Send a line of text over the socket with the specified priority.
+	 *
+	 * @param line     Text to send.
+	 * @param priority The priority; PONG and QUIT are URGENT, things the user
+	 *                 typed are NORMAL and automated traffic is BULK.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client sendRaw(String line, Priority priority) {
+		queueRaw(line, priority);
+		return this;
+	}
+
+	/**
+	 * Queues a line of text to be sent. Lines are written by the transport
+	 * in priority order, subject to flood control.
+	 *
+	 * @param line     Text to send.
+	 * @param priority The priority.
+	 * @return The queued line, which can be used to wait until it is sent.
+	 */
+	public QueuedLine queueRaw(String line, Priority priority) {
+		return queued(sendQueue.add(line, priority));
+	}
+
+	/**
+	 * Queues a line in parts: "COMMAND target :trailing", with the trailing
+	 * text optionally wrapped in a CTCP verb. The transport encodes the parts
+	 * straight into its write buffer, so the line is never built as a String.
+	 *
+	 * @param command  The command, eg "PRIVMSG".
+	 * @param target   The target (channel, nick...), or null.
+	 * @param ctcp     The CTCP verb, eg "ACTION", or null.
+	 * @param trailing The trailing parameter, or null.
+	 * @param priority The priority.
+	 * @return The queued line, which can be used to wait until it is sent.
+	 */
+	public QueuedLine queueCommand(String command, String target, String ctcp, String trailing, Priority priority) {
+		return queued(sendQueue.add(command, target, ctcp, trailing, priority));
+	}
+
+	/**
+	 * Wakes the transport up and fires lineSent for a newly queued line.
+	 */
+	private QueuedLine queued(QueuedLine queued) {
+		if (transport != null) {
+			transport.flush();
+		}
+
+		// Fire lineSent event
+		if (events.hasListeners(EventType.LINE_SENT)) {
+			RawEvent rawEvent = new RawEvent(this);
+			rawEvent.line = queued.getLine();
+			events.fire(EventType.LINE_SENT, rawEvent);
+		}
+
+		return queued;
+	}
+
+	/**
+	 * Sets the default part message.
+	 *
+	 * @param message The message to set as default.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setDefaultPartMessage(String message) {
+		defaultPartMessage = message;
+		return this;
+	}
+
+	/**
+	 * Sets the default quit message.
+	 *
+	 * @param message The message to set as default.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setDefaultQuitMessage(String message) {
+		defaultQuitMessage = message;
+		return this;
+	}
+
+	/**
+	 * Set user info ready for connection.
+	 *
+	 * @param nick     Nickname to use.
+	 * @param user     User / ident to use.
+	 * @param realname Real nick to use.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client setUserInfo(String nick, String user, String realname) {
+		this.nick = nick;
+		this.user = user;
+		this.realname = realname;
+
+		rebuildHighlighter();
+		return this;
+	}
+
+	/**
+	 * Switches to the specified user or channel.
+	 *
+	 * @param destination The Communicator object for the user or channel to
+	 *                    switch to.
 	 * @return Returns itself to allow method chaining.
 	 */
-	public Client switchTo(Communicator destination) {
-		switchTo(destination.getName());
-		return this;
+	public Client switchTo(Communicator destination) {
+		switchTo(destination.getName());
+		return this;
+	}
+
+	/**
+	 * Switches to the specified user or channel.
+	 *
+	 * @param destination The nick of the user or the channel nick.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client switchTo(String destination) {
+		this.currentDestination = destination;
+
+		ChannelSwitchedEvent event = new ChannelSwitchedEvent(this);
+		event.destination = destination;
+		events.fire(EventType.CHANNEL_SWITCHED, event);
+
+		return this;
+	}
+
+	/**
+	 * Adds a handler for a numeric, called after the built in handling.
+	 *
+	 * @param numeric The numeric, 0 to 999.
+	 * @param handler The handler.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client addHandler(int numeric, CommandHandler handler) {
+		dispatcher.addHandler(numeric, handler);
+		return this;
+	}
+
+	/**
+	 * Adds a handler for a verb such as "PRIVMSG", called after the built in
+	 * handling.
+	 *
+	 * @param verb    The verb (case insensitive).
+	 * @param handler The handler.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client addHandler(String verb, CommandHandler handler) {
+		dispatcher.addHandler(verb, handler);
+		return this;
+	}
+
+	/**
+	 * Removes a numeric handler.
+	 *
+	 * @param numeric The numeric it was added for.
+	 * @param handler The handler (must be the exact object).
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client removeHandler(int numeric, CommandHandler handler) {
+		dispatcher.removeHandler(numeric, handler);
+		return this;
+	}
+
+	/**
+	 * Removes a verb handler.
+	 *
+	 * @param verb    The verb it was added for.
+	 * @param handler The handler (must be the exact object).
+	 * @return Returns itself to allow method chaining.
+	 */
+	public Client removeHandler(String verb, CommandHandler handler) {
+		dispatcher.removeHandler(verb, handler);
+		return this;
+	}
+
+	/**
+	 * Fires the disconnected event, once per connection, however the
+	 * connection ended.
+	 */
+	synchronized private void handleDisconnect() {
+		if (disconnected) {
+			return;
+		}
+		disconnected = true;
+		connected = false;
+		// Can be called from any thread, so both are guarded by their own locks
+		names.clear();
+		synchronized (pendingLists) {
+			pendingLists.clear();
+		}
+
+		// Fire disconnected event
+		events.fire(EventType.DISCONNECTED);
+	}
+
+	/**
+	 * Handles a batch of lines read from the server in one go.
+	 *
+	 * @param lines The received lines, in order.
+	 * @throws IRCException See handleNewLine.
+	 */
+	private void handleNewLines(List<String> lines) throws IRCException {
+		for (String line : lines) {
+			handleNewLine(line);
+		}
+	}
+
+	/**
+	 * Private method to handle new lines from the IRC server. Basically
+	 * just exists so that less indents are used.
+	 *
+	 * @param line The received line.
+	 * @return Returns itself to allow method chaining.
+	 * @throws IRCException Rarely throws this; just on nick already taken.
+	 */
+	private Client handleNewLine(String line) throws IRCException {
+		message.parse(line);
+
+		// Ignored senders are dealt with before anything is built for them
+		quiet = false;
+		IgnoreType ignoreType = ignores.isEmpty() ? null : ignoreType(message);
+		if (ignoreType != null && !message.nickEquals(nick, getCaseMapping())
+				&& ignores.matches(message, ignoreType, region)) {
+			ignored.incrementAndGet(ignoreType.ordinal());
+			if (ignoreType.isDropped()) {
+				return this;
+			}
+			quiet = true;
+		}
+
+		dispatcher.dispatch(this, message);
+
+		// Fire lineReceived event
+		if (!quiet && events.hasListeners(EventType.LINE_RECEIVED)) {
+			RawEvent rawEvent = new RawEvent(this);
+			rawEvent.line = line;
+			events.fire(EventType.LINE_RECEIVED, rawEvent);
+		}
+
+		return this;
+	}
+
+	/**
+	 * @param message The parsed line.
+	 * @return What kind of line it is, for ignoring, or null if it's a kind
+	 *         that is never ignored.
+	 */
+	private static IgnoreType ignoreType(IRCMessage message) {
+		boolean privmsg = message.commandEquals("PRIVMSG");
+		if (privmsg || message.commandEquals("NOTICE")) {
+			String line = message.getLine();
+			if (message.getParamCount() > 1) {
+				int start = message.getParamStart(1);
+				if (start < line.length() && line.charAt(start) == '\u0001' && !line.startsWith("\u0001ACTION ", start)) {
+					return IgnoreType.CTCP;
+				}
+			}
+			return privmsg ? IgnoreType.PRIVMSG : IgnoreType.NOTICE;
+		} else if (message.commandEquals("JOIN")) {
+			return IgnoreType.JOIN;
+		} else if (message.commandEquals("PART")) {
+			return IgnoreType.PART;
+		} else if (message.commandEquals("QUIT")) {
+			return IgnoreType.QUIT;
+		} else if (message.commandEquals("NICK")) {
+			return IgnoreType.NICK;
+		}
+		return null;
+	}
+
+	/**
+	 * Registers the handlers for everything the client understands itself.
+	 */
+	private void addDefaultHandlers() {
+		dispatcher.addHandler("PING", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				queueCommand("PONG", null, null, message.getLastParam(), Priority.URGENT);
+			}
+		});
+
+		dispatcher.addHandler(4, new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleConnected();
+			}
+		});
+
+		dispatcher.addHandler(5, new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleServerInfo(message);
+			}
+		});
+
+		dispatcher.addHandler(332, new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				Channel channel = getChannel(message, 1);
+				if (channel != null) {
+					channel.topic = message.getLastParam();
+				}
+			}
+		});
+
+		dispatcher.addHandler(324, new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleChannelModes(message);
+			}
+		});
+
+		CommandHandler listEntry = new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleListEntry(message);
+			}
+		};
+		dispatcher.addHandler(346, listEntry);
+		dispatcher.addHandler(348, listEntry);
+		dispatcher.addHandler(367, listEntry);
+
+		CommandHandler listEnd = new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleListEnd(message);
+			}
+		};
+		dispatcher.addHandler(347, listEnd);
+		dispatcher.addHandler(349, listEnd);
+		dispatcher.addHandler(368, listEnd);
+
+		dispatcher.addHandler(353, new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleNames(message);
+			}
+		});
+
+		dispatcher.addHandler(366, new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleEndOfNames(message);
+			}
+		});
+
+		CommandHandler nickError = new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) throws IRCException {
+				handleNickError(message);
+			}
+		};
+		dispatcher.addHandler(432, nickError);
+		dispatcher.addHandler(433, nickError);
+
+		dispatcher.addHandler("JOIN", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleJoin(message);
+			}
+		});
+
+		dispatcher.addHandler("MODE", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleMode(message);
+			}
+		});
+
+		dispatcher.addHandler("NICK", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleNick(message);
+			}
+		});
+
+		dispatcher.addHandler("PART", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handlePart(message);
+			}
+		});
+
+		dispatcher.addHandler("PRIVMSG", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handlePrivmsg(message);
+			}
+		});
+
+		dispatcher.addHandler("QUIT", new CommandHandler() {
+			@Override
+			public void handle(Client client, IRCMessage message) {
+				handleQuit(message);
+			}
+		});
 	}
 
 	/**
-	 * Switches to the specified user or channel.
+	 * Handles 004, which means we're connected.
+	 */
+	private void handleConnected() {
+		if (connected) {
+			return;
+		}
+
+		connected = true;
+
+		User you = new User(this);
+		you.nick = nick;
+		putUser(nick, you);
+
+		// The nick may have had to change to get here
+		rebuildHighlighter();
+
+		// Fire connected event
+		events.fire(EventType.CONNECTED);
+	}
+
+	/**
+	 * Handles 005, which contains the server info.
 	 *
-	 * @param destination The nick of the user or the channel nick.
-	 * @return Returns itself to allow method chaining.
+	 * @param message The parsed line.
 	 */
-	public Client switchTo(String destination) {
-		this.currentDestination = destination;
+	private void handleServerInfo(IRCMessage message) {
+		String line = message.getLine();
+
+		// Skip our nick and the trailing "are supported by this server"
+		int last = message.hasTrailing() ? message.getParamCount() - 1 : message.getParamCount();
+		for (int i = 1; i < last; i++) {
+			int start = message.getParamStart(i);
+			int end = message.getParamEnd(i);
+			int equals = line.indexOf('=', start);
+
+			if (equals == -1 || equals > end) {
+				serverInfo.put(line.substring(start, end), "");
+			} else {
+				serverInfo.put(line.substring(start, equals), line.substring(equals + 1, end));
+			}
+		}
 
-		ChannelSwitchedEvent event = new ChannelSwitchedEvent(this);
-		event.destination = destination;
-		events.fire("channelSwitched", event);
+		if (serverInfo.containsKey("PREFIX")) {
+			prefixes = new Prefixes(serverInfo.get("PREFIX"));
+		}
 
-		return this;
+		if (serverInfo.containsKey("CHANMODES")) {
+			chanModes = new ChanModes(serverInfo.get("CHANMODES"));
+		}
+
+		if (serverInfo.containsKey("CASEMAPPING")) {
+			CaseMapping caseMapping = CaseMapping.fromName(serverInfo.get("CASEMAPPING"));
+			synchronized (stateLock) {
+				state = state.withCaseMapping(caseMapping);
+			}
+			for (Channel channel : state.getChannels().values()) {
+				channel.modes.setCaseMapping(caseMapping);
+			}
+			synchronized (ignoreLock) {
+				ignores = ignores.withCaseMapping(caseMapping);
+			}
+			rebuildHighlighter();
+		}
+
+		// Pre-CAP servers (Unreal) switch the NAMES formats on with PROTOCTL
+		handleProtoctl(message);
 	}
 
 	/**
-	 * Private method to handle new lines from the IRC server. Basically
-	 * just exists so that less indents are used.
+	 * Turns on NAMESX and UHNAMES if a 005 line advertises them.
 	 *
-	 * @param line The received line.
-	 * @return Returns itself to allow method chaining.
-	 * @throws IRCException Rarely throws this; just on nick already taken.
+	 * @param message The parsed 005 line.
 	 */
-	synchronized private Client handleNewLine(String line) throws IRCException {
-		if (!connected) {
-			// Connected
-			if (line.contains("004")) {
-				connected = true;
-
-				User you = new User(this);
-				you.nick = nick;
-				users.put(nick, you);
-
-				// Fire connected event
-				events.fire("connected");
-
-			// Get server info
-			} else if (line.contains("005")) {
-				String[] splitLine = line.split(" ");
-				for (int i = 0; i < splitLine.length; i++) {
-					if (splitLine[i].contains("=")) {
-						String[] splitSplit = splitLine[i].split("=");
-						if (splitSplit.length == 2) {
-							serverInfo.put(splitSplit[0], splitSplit[1]);
-						}
-					}
-				}
+	private void handleProtoctl(IRCMessage message) {
+		for (int i = 1; i < message.getParamCount(); i++) {
+			if (message.paramEquals(i, "NAMESX") || message.paramEquals(i, "UHNAMES")) {
+				queueCommand("PROTOCTL", message.getParam(i), null, null, Priority.NORMAL);
+			}
+		}
+	}
+
+	/**
+	 * Handles 432 and 433, which are sent when the nick is bad or taken.
+	 *
+	 * @param message The parsed line.
+	 * @throws IRCException If we can't fix it by changing the nick.
+	 */
+	private void handleNickError(IRCMessage message) throws IRCException {
+		if (connected) {
+			return;
+		}
 
-			// Failed to connect; bad nickname
-			} else if (line.contains("432")) {
-				throw new IRCException("Erroneous Nickname returned by server");
+		// Failed to connect; bad nickname
+		if (message.getNumeric() == 432) {
+			throw new IRCException("Erroneous Nickname returned by server");
+		}
 
-			// Failed to connect; nick already taken
-			} else if (line.contains("433")) {
-				int maxLength = serverInfo.containsKey("NICKLEN") ? Integer.parseInt(serverInfo.get("NICKLEN")) : 16;
-				if (nick.length() >= maxLength) {
-					throw new IRCException("Nick already in use");
-				}
+		// Failed to connect; nick already taken
+		int maxLength = serverInfo.containsKey("NICKLEN") ? Integer.parseInt(serverInfo.get("NICKLEN")) : 16;
+		if (nick.length() >= maxLength) {
+			throw new IRCException("Nick already in use");
+		}
+
+		nick += "_";
+		queueCommand("NICK", nick, null, null, Priority.NORMAL);
+	}
+
+	/**
+	 * Handles 353, a list of names in a channel. The names are only staged
+	 * here; the roster is built when 366 arrives.
+	 *
+	 * The names are the last parameter and the channel the one before it,
+	 * so replies without the "=" channel type work too.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleNames(IRCMessage message) {
+		int last = message.getParamCount() - 1;
+		if (last < 2) {
+			// The offsets of missing parameters are left over from old lines
+			return;
+		}
+
+		names.add(message.getParam(last - 1), message.getLine(), message.getParamStart(last), message.getParamEnd(last), prefixes);
+	}
+
+	/**
+	 * Handles 366, the end of the names list. The staged names become the
+	 * channel's new roster, which is swapped in whole. This is when we
+	 * consider a channel joined.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleEndOfNames(IRCMessage message) {
+		if (message.getParamCount() < 2) {
+			// As in handleNames, a missing parameter would read old offsets
+			return;
+		}
 
-				nick += "_";
-				sendRaw("NICK " + nick);
+		String channelName = message.getParam(1);
+		NamesAccumulator.Batch batch = names.finish(channelName);
+
+		Channel channel = state.getChannel(channelName);
+		if (channel == null) {
+			// Names of a channel we aren't in (/names #channel)
+			return;
+		}
+
+		Roster roster = new Roster();
+		for (int i = 0; i < batch.size; i++) {
+			String nick = batch.nicks[i];
+
+			// If user isn't known, create user object
+			User user = state.getUser(nick);
+			if (user == null) {
+				user = new User(this);
+				user.nick = nick;
+				putUser(nick, user);
 			}
-		} else if (line.startsWith("PING ")) {
-			sendRaw("PONG " + line.substring(5));
-		} else {
-			String[] splitLine = line.split(" ");
 
-			String command = splitLine[1].toUpperCase();
-			boolean commandIsNumber = true;
-			try {
-				Integer.parseInt(command);
-			} catch (NumberFormatException e) {
-				commandIsNumber = false;
+			if (user.user == null) {
+				user.user = strings.acquire(batch.idents[i]);
+			}
+			if (user.host == null) {
+				user.host = strings.acquire(batch.hosts[i]);
+			}
+
+			user.channels.add(channel);
+			roster.add(user, batch.modes[i]);
+		}
+
+		// We should have been in the names list, but just in case (getUser
+		// adds us if we weren't known yet either)
+		User us = getUser(nick);
+		if (!roster.contains(us)) {
+			roster.add(us, 0);
+			us.channels.add(channel);
+		}
+
+		// Anyone who was in the old roster but not the new one has gone
+		for (User user : channel.members) {
+			if (!roster.contains(user)) {
+				user.channels.remove(channel);
+				evictIfUnused(user);
 			}
+		}
+
+		channel.members = roster;
 
-			command = (commandIsNumber ? "N" : "") + command;
+		if (channel.joined) {
+			// Just a names refresh
+			return;
+		}
+		channel.joined = true;
+
+		// The modes and bans aren't sent on join
+		if (trackChannelModes) {
+			queueCommand("MODE", channel.name, null, null, Priority.BULK);
+			queueRaw("MODE " + channel.name + " +b", Priority.BULK);
+		}
+
+		// Fire channelJoined event
+		if (events.hasListeners(EventType.CHANNEL_JOINED)) {
+			JoinedEvent joinedEvent = new JoinedEvent(this);
+			joinedEvent.channel = channel;
+			joinedEvent.user = us;
+			joinedEvent.us = true;
+			events.fire(EventType.CHANNEL_JOINED, joinedEvent);
+		}
+	}
+
+	/**
+	 * Handles JOIN.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleJoin(IRCMessage message) {
+		// If our user, fire on 366
+		if (message.nickEquals(nick, getCaseMapping())) {
+			return;
+		}
+
+		Channel channel = getChannel(message, 0);
+		if (channel == null) {
+			return;
+		}
+
+		User user = getUser(message);
+
+		channel.members.add(user, 0);
+		user.channels.add(channel);
+
+		// Fire channelJoined event
+		if (events.hasListeners(EventType.CHANNEL_JOINED)) {
+			JoinedEvent joinedEvent = new JoinedEvent(this);
+			joinedEvent.channel = channel;
+			joinedEvent.user = user;
+			joinedEvent.us = false;
+			joinedEvent.ignored = quiet;
+			events.fire(EventType.CHANNEL_JOINED, joinedEvent);
+		}
+	}
+
+	/**
+	 * Handles MODE. Only channel modes are tracked.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleMode(IRCMessage message) {
+		Channel channel = getChannel(message, 0);
+		if (channel == null) {
+			// User modes, or a channel we aren't in
+			return;
+		}
+
+		List<User> members = applyModes(channel, message, 1);
 
-			Commands switchBy = Commands.CNF;
-			for (Commands value : Commands.values()) {
-				if (value.name().equalsIgnoreCase(command)) {
-					switchBy = value;
-					break;
+		// Fire channelModeChanged event
+		if (!quiet && events.hasListeners(EventType.CHANNEL_MODE_CHANGED)) {
+			StringBuilder modes = new StringBuilder();
+			for (int i = 1; i < message.getParamCount(); i++) {
+				if (i > 1) {
+					modes.append(' ');
 				}
+				modes.append(message.getLine(), message.getParamStart(i), message.getParamEnd(i));
 			}
 
-			Channel channel;
-			User user;
-			JoinedEvent joinedEvent;
-
-			switch (switchBy) {
-				case N332:
-					channel = channels.get(splitLine[3]);
-					channel.topic = line.substring(line.indexOf(":", 3) + 1);
-					break;
-
-				case N353:
-					channel = channels.get(splitLine[4]);
-					String partLine = line.substring(line.indexOf(":", 3));
-					String[] nicks = partLine.substring(partLine.indexOf(" ")).split(" ");
-
-					for (String nick : nicks) {
-						// Nick "@callumacrae" separates to '@' and "callumacrae" (defaults to ' ')
-						if (nick.matches("^[@+]")) {
-							nick = nick.substring(1);
-						}
-
-						// If user already exists, get user object
-						if (users.containsKey(nick)) {
-							user = users.get(nick);
-
-						// If user isn't known, create user object
-						} else {
-							user = new User(this);
-							users.put(nick, user);
-							user.nick = nick;
-						}
-
-						user.channels.add(channel);
-						channel.users.add(user);
-						channel.nickList.add(nick);
-					}
-					break;
-
-				case N366:
-					user = users.get(nick);
-					channel = channels.get(splitLine[3]);
-					channel.joined = true;
-
-					channel.users.add(user);
-					channel.nickList.add(nick);
-					user.channels.add(channel);
-
-					// Fire channelJoined event
-					joinedEvent = new JoinedEvent(this);
-					joinedEvent.channel = channel;
-					joinedEvent.user = user;
-					joinedEvent.us = true;
-					events.fire("channelJoined", joinedEvent);
-					break;
-
-				case JOIN:
-					user = getUser(splitLine[0]);
-					channel = channels.get(splitLine[2]);
-
-					// If our user, fire on N366
-					if (user.nick.equals(nick)) {
-						break;
-					}
+			ModeEvent modeEvent = new ModeEvent(this);
+			modeEvent.channel = channel;
+			modeEvent.user = message.hasPrefix()
+					? state.getUser(region.set(message.getLine(), message.getNickStart(), message.getNickEnd()))
+					: null;
+			modeEvent.setter = message.getNick();
+			modeEvent.modes = modes.toString();
+			modeEvent.members = members;
+			events.fire(EventType.CHANNEL_MODE_CHANGED, modeEvent);
+		}
+	}
 
-					channel.users.add(user);
-					channel.nickList.add(user.nick);
-					user.channels.add(channel);
-
-					// Fire channelJoined event
-					joinedEvent = new JoinedEvent(this);
-					joinedEvent.channel = channel;
-					joinedEvent.user = user;
-					joinedEvent.us = false;
-					events.fire("channelJoined", joinedEvent);
-					break;
-
-				case NICK:
-					user = getUser(splitLine[0]);
-					String newnick = splitLine[2].substring(1);
-
-					// Special case if it is us
-					if (user.nick.equals(nick)) {
-						nick = newnick;
-					}
+	/**
+	 * Handles 324, a channel's modes. They replace what we had.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleChannelModes(IRCMessage message) {
+		Channel channel = getChannel(message, 1);
+		if (channel != null) {
+			channel.modes.clear();
+			applyModes(channel, message, 2);
+		}
+	}
+
+	/**
+	 * Applies a mode string, eg "+ov-k bob bob key", using PREFIX and
+	 * CHANMODES to tell which modes take parameters.
+	 *
+	 * @param channel The channel.
+	 * @param message The parsed line.
+	 * @param index   The index of the mode string; its parameters follow.
+	 * @return The members whose prefix modes changed.
+	 */
+	private List<User> applyModes(Channel channel, IRCMessage message, int index) {
+		if (index >= message.getParamCount()) {
+			return Collections.emptyList();
+		}
+
+		String line = message.getLine();
+		int param = index + 1;
+		boolean set = true;
+		List<User> members = null;
 
-					// Fire nickChanged event. Warning, fired BEFORE user.nick change.
-					NickChangedEvent nickChangedEvent = new NickChangedEvent(this);
-					nickChangedEvent.user = user;
-					nickChangedEvent.oldnick = user.nick;
-					nickChangedEvent.newnick = newnick;
-					nickChangedEvent.us = nick.equals(newnick);
-					events.fire("nickChanged", nickChangedEvent);
-
-					for (Channel chan : user.channels) {
-						if (chan.nickList.contains(user.nick)) {
-							chan.nickList.remove(user.nick);
-							chan.nickList.add(newnick);
-						} else if (chan.nickList.contains("+" + user.nick)) {
-							chan.nickList.remove("+" + user.nick);
-							chan.nickList.add("+" + newnick);
-						} else if (chan.nickList.contains("@" + user.nick)) {
-							chan.nickList.remove("@" + user.nick);
-							chan.nickList.add("@" + newnick);
-						}
+		for (int i = message.getParamStart(index); i < message.getParamEnd(index); i++) {
+			char mode = line.charAt(i);
+			if (mode == '+' || mode == '-') {
+				set = mode == '+';
+				continue;
+			}
+
+			// Member modes take a nick
+			int bit = prefixes.bitForMode(mode);
+			if (bit != 0) {
+				if (param >= message.getParamCount()) {
+					continue;
+				}
+
+				User user = state.getUser(region.set(line, message.getParamStart(param), message.getParamEnd(param)));
+				param++;
+				int modes = user == null ? -1 : channel.members.getModes(user);
+				if (modes != -1) {
+					channel.members.add(user, set ? modes | bit : modes & ~bit);
+					if (members == null) {
+						members = new ArrayList<User>();
 					}
+					members.add(user);
+				}
+				continue;
+			}
 
-					users.remove(user.nick);
-					users.put(newnick, user);
-					user.nick = newnick;
+			int type = chanModes.getType(mode);
+			String arg = null;
+			if (type == ChanModes.LIST || type == ChanModes.ALWAYS_PARAM || (type == ChanModes.SET_PARAM && set)) {
+				if (param < message.getParamCount()) {
+					arg = message.getParam(param++);
+				}
+			}
 
-					break;
+			if (type == ChanModes.LIST) {
+				if (arg != null) {
+					channel.modes.setListEntry(mode, arg, set, getCaseMapping());
+				}
+			} else {
+				channel.modes.set(chanModes.bitForMode(mode), mode, set, arg);
+			}
+		}
 
-				case PART:
-					user = getUser(splitLine[0]);
-					channel = channels.get(splitLine[2]);
+		return members == null ? Collections.<User>emptyList() : members;
+	}
 
-					channel.users.remove(user);
-					user.channels.remove(channel);
+	/**
+	 * Handles 367, 348 and 346, an entry in a ban, exception or invite
+	 * list. The entries are staged until the end of the list.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleListEntry(IRCMessage message) {
+		if (message.getParamCount() < 3 || getChannel(message, 1) == null) {
+			return;
+		}
 
-					// Remove all three... who cares?
-					channel.nickList.remove(user.nick);
-					channel.nickList.remove("+" + user.nick);
-					channel.nickList.remove("@" + user.nick);
+		String key = listMode(message.getNumeric()) + message.getParam(1);
+		synchronized (pendingLists) {
+			List<Mask> list = pendingLists.get(key);
+			if (list == null) {
+				list = new ArrayList<Mask>();
+				pendingLists.put(key, list);
+			}
+			list.add(new Mask(message.getParam(2)));
+		}
+	}
 
-					// Fire channelParted event
-					PartedEvent partedEvent = new PartedEvent(this);
-					partedEvent.user = user;
-					partedEvent.channel = channel;
-					partedEvent.partMessage = "";
-					partedEvent.us = user.nick.equals(nick);
+	/**
+	 * Handles 368, 349 and 347, the end of a list. The staged entries
+	 * replace the channel's list.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleListEnd(IRCMessage message) {
+		if (message.getParamCount() < 2) {
+			return;
+		}
 
-					if (partedEvent.us) {
-						channel.joined = false;
-					} else if (line.contains("PART " + splitLine[2] + " :")) {
-						int offset = splitLine[0].length() + splitLine[2].length() + 8;
-						partedEvent.partMessage = line.substring(offset);
-					}
+		char mode = listMode(message.getNumeric());
+		List<Mask> list;
+		synchronized (pendingLists) {
+			list = pendingLists.remove(mode + message.getParam(1));
+		}
+		Channel channel = getChannel(message, 1);
+		if (channel != null) {
+			channel.modes.setList(mode, list == null ? MaskIndex.empty(getCaseMapping())
+					: MaskIndex.of(list, 1, getCaseMapping()));
+		}
+	}
 
-					events.fire("channelParted", partedEvent);
-
-					break;
-
-				case PRIVMSG:
-					user = getUser(splitLine[0]);
-					String channelName = splitLine[2]; // Might not be a channel
-					String message = line.substring(line.indexOf(":", 2) + 1);
-
-					if (channelName.equals(nick)) {
-						// See whether ACTION or normal PRIVMSG
-						if (message.startsWith("\u0001ACTION") && message.endsWith("\u0001")) {
-							message = message.substring(8, message.length() - 1);
-
-							// Fire queryActionReceived event
-							ActionEvent event = new ActionEvent(this);
-							event.user = user;
-							event.destination = user.nick;
-							event.action = message;
-
-							events.fire("queryActionReceived", event);
-						} else {
-							// Fire queryReceived event
-							MessageEvent event = new MessageEvent(this);
-							event.user = user;
-							event.destination = user.nick;
-							event.message = message;
-
-							events.fire("queryReceived", event);
-						}
-					} else {
-						channel = channels.get(channelName);
-
-						// See whether ACTION or normal PRIVMSG
-						if (message.startsWith("\u0001ACTION") && message.endsWith("\u0001")) {
-							message = message.substring(8, message.length() - 1);
-
-							// Fire actionReceived event
-							ActionEvent event = new ActionEvent(this);
-							event.user = user;
-							event.destination = channel.name;
-							event.action = message;
-
-							events.fire("actionReceived", event);
-						} else {
-							// Fire messageReceived event
-							MessageEvent event = new MessageEvent(this);
-							event.channel = channel;
-							event.user = user;
-							event.destination = user.nick;
-							event.message = message;
-
-							events.fire("messageReceived", event);
-						}
-					}
-					break;
+	/**
+	 * @param numeric A list numeric, eg 367.
+	 * @return The list's mode letter. The numerics are fixed, even on
+	 *         servers where EXCEPTS or INVEX name other letters.
+	 */
+	private char listMode(int numeric) {
+		switch (numeric) {
+			case 346:
+			case 347:
+				return serverInfo.containsKey("INVEX") && serverInfo.get("INVEX").length() > 0 ? serverInfo.get("INVEX").charAt(0) : 'I';
+			case 348:
+			case 349:
+				return serverInfo.containsKey("EXCEPTS") && serverInfo.get("EXCEPTS").length() > 0 ? serverInfo.get("EXCEPTS").charAt(0) : 'e';
+			default:
+				return 'b';
+		}
+	}
 
-				case QUIT:
-					user = getUser(splitLine[0]);
+	/**
+	 * Handles NICK.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleNick(IRCMessage message) {
+		if (message.getParamCount() < 1) {
+			return;
+		}
 
-					if (user.nick.equals(nick)) {
-						break;
-					}
+		User user = getUser(message);
+		String newnick = message.getParam(0);
 
-					String quitMessage = "";
-					if (line.contains("QUIT :")) {
-						quitMessage = line.substring(splitLine[0].length() + splitLine[2].length() + 7);
-					}
+		// Special case if it is us
+		if (getCaseMapping().equals(user.nick, nick)) {
+			nick = newnick;
+			rebuildHighlighter();
+		}
+
+		// Fire nickChanged event. Warning, fired BEFORE user.nick change.
+		if (events.hasListeners(EventType.NICK_CHANGED)) {
+			NickChangedEvent nickChangedEvent = new NickChangedEvent(this);
+			nickChangedEvent.user = user;
+			nickChangedEvent.oldnick = user.nick;
+			nickChangedEvent.newnick = newnick;
+			nickChangedEvent.us = nick.equals(newnick);
+			nickChangedEvent.ignored = quiet;
+			events.fire(EventType.NICK_CHANGED, nickChangedEvent);
+		}
 
-					for (Channel chan : user.channels) {
-						chan.users.remove(user);
+		renameUser(user.nick, newnick, user);
+		user.nick = newnick;
+	}
 
-						// Remove all three... who cares?
-						chan.nickList.remove(user.nick);
-						chan.nickList.remove("+" + user.nick);
-						chan.nickList.remove("@" + user.nick);
-					}
+	/**
+	 * Handles PART.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handlePart(IRCMessage message) {
+		Channel channel = getChannel(message, 0);
+		if (channel == null) {
+			return;
+		}
 
-					QuitEvent quitEvent = new QuitEvent(this);
-					quitEvent.user = user;
-					quitEvent.quitMessage = quitMessage;
-					events.fire("userQuit", quitEvent);
+		User user = getUser(message);
+		channel.members.remove(user);
+		user.channels.remove(channel);
+
+		boolean us = getCaseMapping().equals(user.nick, nick);
+		Roster members = channel.members;
+		if (us) {
+			channel.joined = false;
+			channel.members = new Roster();
+			for (User member : members) {
+				member.channels.remove(channel);
+			}
+		}
 
-					// Remove user object
-					users.remove(user.nick);
+		// Fire channelParted event
+		if (events.hasListeners(EventType.CHANNEL_PARTED)) {
+			PartedEvent partedEvent = new PartedEvent(this);
+			partedEvent.user = user;
+			partedEvent.channel = channel;
+			partedEvent.partMessage = "";
+			partedEvent.us = us;
+			partedEvent.ignored = quiet;
+
+			if (!us && message.getParamCount() > 1) {
+				partedEvent.partMessage = message.getParam(1);
+			}
 
-					break;
+			events.fire(EventType.CHANNEL_PARTED, partedEvent);
+		}
 
-				default:
-					break;
+		if (us) {
+			for (User member : members) {
+				evictIfUnused(member);
 			}
+		} else {
+			evictIfUnused(user);
 		}
+	}
 
-		// Fire lineReceived event
-		RawEvent rawEvent = new RawEvent(this);
-		rawEvent.line = line;
-		events.fire("lineReceived", rawEvent);
+	/**
+	 * Handles PRIVMSG, to both channels and us.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handlePrivmsg(IRCMessage message) {
+		if (message.getParamCount() < 2) {
+			return;
+		}
 
-		return this;
+		User user = getUser(message);
+		firePrivmsg(message, user);
+
+		// Listeners (eg a query window) may have retained them
+		evictIfUnused(user);
+	}
+
+	/**
+	 * Fires the events for a PRIVMSG.
+	 *
+	 * @param message The parsed line.
+	 * @param user    The sender.
+	 */
+	private void firePrivmsg(IRCMessage message, User user) {
+		String line = message.getLine();
+
+		// Might not be a channel
+		int textStart = message.getParamStart(1);
+		int textEnd = message.getParamEnd(1);
+		boolean isAction = textEnd - textStart > 8
+				&& line.startsWith("\u0001ACTION ", textStart)
+				&& line.charAt(textEnd - 1) == '\u0001';
+		if (isAction) {
+			textStart += 8;
+			textEnd -= 1;
+		}
+		String text = line.substring(textStart, textEnd);
+
+		if (message.paramEquals(0, nick, getCaseMapping())) {
+			// See whether ACTION or normal PRIVMSG
+			if (isAction) {
+				// Fire queryActionReceived event
+				if (events.hasListeners(EventType.QUERY_ACTION_RECEIVED)) {
+					ActionEvent event = new ActionEvent(this);
+					event.user = user;
+					event.destination = user.nick;
+					event.action = text;
+					event.highlights = highlighter.match(line, textStart, textEnd);
+
+					events.fire(EventType.QUERY_ACTION_RECEIVED, event);
+				}
+			} else {
+				// Fire queryReceived event
+				if (events.hasListeners(EventType.QUERY_RECEIVED)) {
+					MessageEvent event = new MessageEvent(this);
+					event.user = user;
+					event.destination = user.nick;
+					event.message = text;
+					event.highlights = highlighter.match(line, textStart, textEnd);
+
+					events.fire(EventType.QUERY_RECEIVED, event);
+				}
+			}
+		} else {
+			Channel channel = getChannel(message, 0);
+			if (channel == null) {
+				return;
+			}
+
+			// See whether ACTION or normal PRIVMSG
+			if (isAction) {
+				// Fire actionReceived event
+				if (events.hasListeners(EventType.ACTION_RECEIVED)) {
+					ActionEvent event = new ActionEvent(this);
+					event.user = user;
+					event.destination = channel.name;
+					event.action = text;
+					event.highlights = highlighter.match(line, textStart, textEnd);
+
+					events.fire(EventType.ACTION_RECEIVED, event);
+				}
+			} else {
+				// Fire messageReceived event
+				if (events.hasListeners(EventType.MESSAGE_RECEIVED)) {
+					MessageEvent event = new MessageEvent(this);
+					event.channel = channel;
+					event.user = user;
+					event.destination = user.nick;
+					event.message = text;
+					event.highlights = highlighter.match(line, textStart, textEnd);
+
+					events.fire(EventType.MESSAGE_RECEIVED, event);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handles QUIT.
+	 *
+	 * @param message The parsed line.
+	 */
+	private void handleQuit(IRCMessage message) {
+		if (message.nickEquals(nick, getCaseMapping())) {
+			return;
+		}
+
+		User user = getUser(message);
+
+		for (Channel chan : user.channels) {
+			chan.members.remove(user);
+		}
+
+		if (events.hasListeners(EventType.USER_QUIT)) {
+			QuitEvent quitEvent = new QuitEvent(this);
+			quitEvent.user = user;
+			quitEvent.quitMessage = message.getParamCount() > 0 ? message.getParam(0) : "";
+			quitEvent.ignored = quiet;
+			events.fire(EventType.USER_QUIT, quitEvent);
+		}
+
+		// Remove user object
+		removeUser(user);
 	}
 }
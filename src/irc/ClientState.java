@@ -0,0 +1,109 @@
+package irc;
+
+import irc.communicator.Channel;
+import irc.communicator.User;
+
+import java.util.Map;
+
+/**
+ * The channels and users a client knows about at one point in time.
+ *
+ * Only the maps are versioned: the client builds a new ClientState whenever
+ * a channel or user is added, removed or renamed, and publishes it in one
+ * step, so any thread can call Client.getState() and read or iterate the
+ * maps without locking and without seeing half of a change. The version
+ * goes up by one with each of those changes.
+ *
+ * The Channel and User objects themselves are shared between states and
+ * changed in place (topics, rosters, modes, hosts), so a state taken
+ * earlier sees those changes too, and they don't bump the version.
+ *
+ * Channels and users are looked up using the server's CaseMapping, so
+ * "#Foo" finds "#foo".
+ */
+public final class ClientState {
+	static final ClientState EMPTY = new ClientState(
+			PersistentMap.<String, Channel>empty(CaseMapping.DEFAULT),
+			PersistentMap.<String, User>empty(CaseMapping.DEFAULT), 0);
+
+	private final PersistentMap<String, Channel> channels;
+	private final PersistentMap<String, User> users;
+	private final long version;
+
+	private ClientState(PersistentMap<String, Channel> channels, PersistentMap<String, User> users, long version) {
+		this.channels = channels;
+		this.users = users;
+		this.version = version;
+	}
+
+	/**
+	 * @return The channels, by name.
+	 */
+	public PersistentMap<String, Channel> getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return The users, by nick.
+	 */
+	public PersistentMap<String, User> getUsers() {
+		return users;
+	}
+
+	/**
+	 * @param name The channel name, in any case.
+	 * @return The channel, or null.
+	 */
+	public Channel getChannel(CharSequence name) {
+		return channels.get(name);
+	}
+
+	/**
+	 * @param nick The nick, in any case.
+	 * @return The user, or null.
+	 */
+	public User getUser(CharSequence nick) {
+		return users.get(nick);
+	}
+
+	/**
+	 * @return How names are compared.
+	 */
+	public CaseMapping getCaseMapping() {
+		return (CaseMapping) users.getEquivalence();
+	}
+
+	/**
+	 * @return The number of changes made before this state.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	ClientState withChannels(PersistentMap<String, Channel> channels) {
+		return channels == this.channels ? this : new ClientState(channels, users, version + 1);
+	}
+
+	ClientState withUsers(PersistentMap<String, User> users) {
+		return users == this.users ? this : new ClientState(channels, users, version + 1);
+	}
+
+	/**
+	 * Re-indexes everything under another case mapping. Names that are now
+	 * the same are merged; the last one wins.
+	 */
+	ClientState withCaseMapping(CaseMapping caseMapping) {
+		if (caseMapping == getCaseMapping()) {
+			return this;
+		}
+		return new ClientState(reindex(channels, caseMapping), reindex(users, caseMapping), version + 1);
+	}
+
+	private static <V> PersistentMap<String, V> reindex(PersistentMap<String, V> map, CaseMapping caseMapping) {
+		PersistentMap<String, V> result = PersistentMap.empty(caseMapping);
+		for (Map.Entry<String, V> entry : map.entrySet()) {
+			result = result.with(entry.getKey(), entry.getValue());
+		}
+		return result;
+	}
+}
@@ -0,0 +1,17 @@
+package irc;
+
+/**
+ * Handles one command or numeric received from the server. Register with
+ * Client.addHandler().
+ */
+public interface CommandHandler {
+	/**
+	 * Called for every received line with the command or numeric the handler
+	 * was registered for.
+	 *
+	 * @param client  The client that received the line.
+	 * @param message The parsed line. Only valid until the handler returns.
+	 * @throws IRCException To abort handling of the line.
+	 */
+	public void handle(Client client, IRCMessage message) throws IRCException;
+}
@@ -1,5 +1,8 @@
 package irc;
 
+import java.util.HashMap;
+import java.util.Locale;
+
 /**
  * Contains enums of various commands
  */
@@ -13,17 +16,31 @@ public enum Commands {
 	JOIN,
 	ME,
 	MSG,
-	N332,
-	N353,
-	N366,
 	NICK,
 	NS,
 	PART,
 	PARTALL,
-	PING,
-	PRIVMSG,
 	QUERY,
 	QUIT,
 	QUOTE,
-	SAY,
+	SAY;
+
+	private static final HashMap<String, Commands> byName = new HashMap<String, Commands>();
+
+	static {
+		for (Commands command : values()) {
+			byName.put(command.name(), command);
+		}
+	}
+
+	/**
+	 * Looks up a command by name, ignoring case.
+	 *
+	 * @param name The command name, without the slash.
+	 * @return The command, or CNF if there isn't one with that name.
+	 */
+	public static Commands fromName(String name) {
+		Commands command = byName.get(name.toUpperCase(Locale.ENGLISH));
+		return command == null ? CNF : command;
+	}
 }
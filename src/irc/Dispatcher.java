@@ -0,0 +1,231 @@
+package irc;
+
+/**
+ * Maps received commands to their handlers in constant time.
+ *
+ * Numerics index straight into an array of 1000 slots. Verbs live in a small
+ * open addressing table that is hashed and compared against the command in
+ * the received line itself, so looking one up doesn't create any strings.
+ *
+ * Handlers can be added from any thread; each change builds new tables and
+ * swaps them in, so dispatching never has to lock.
+ */
+public class Dispatcher {
+	private static final CommandHandler[] NONE = new CommandHandler[0];
+
+	private volatile CommandHandler[][] numerics = new CommandHandler[1000][];
+	private volatile VerbTable verbs = new VerbTable(16);
+
+	/**
+	 * Adds a handler for a numeric. Handlers are called in the order they
+	 * were added.
+	 *
+	 * @param numeric The numeric, 0 to 999.
+	 * @param handler The handler.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public synchronized Dispatcher addHandler(int numeric, CommandHandler handler) {
+		checkNumeric(numeric);
+
+		CommandHandler[][] copy = numerics.clone();
+		copy[numeric] = append(copy[numeric], handler);
+		numerics = copy;
+
+		return this;
+	}
+
+	/**
+	 * Adds a handler for a verb such as "PRIVMSG". Verbs are case insensitive.
+	 *
+	 * @param verb    The verb.
+	 * @param handler The handler.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public synchronized Dispatcher addHandler(String verb, CommandHandler handler) {
+		verbs = verbs.with(verb, append(verbs.get(verb, 0, verb.length()), handler));
+
+		return this;
+	}
+
+	/**
+	 * Removes a numeric handler (must be the exact object).
+	 *
+	 * @param numeric The numeric it was added for.
+	 * @param handler The handler.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public synchronized Dispatcher removeHandler(int numeric, CommandHandler handler) {
+		checkNumeric(numeric);
+
+		CommandHandler[][] copy = numerics.clone();
+		copy[numeric] = remove(copy[numeric], handler);
+		numerics = copy;
+
+		return this;
+	}
+
+	/**
+	 * Removes a verb handler (must be the exact object).
+	 *
+	 * @param verb    The verb it was added for.
+	 * @param handler The handler.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public synchronized Dispatcher removeHandler(String verb, CommandHandler handler) {
+		verbs = verbs.with(verb, remove(verbs.get(verb, 0, verb.length()), handler));
+
+		return this;
+	}
+
+	/**
+	 * Calls every handler registered for the command of a parsed line.
+	 *
+	 * @param client  The client that received the line.
+	 * @param message The parsed line.
+	 * @return Whether any handler was called.
+	 * @throws IRCException If a handler throws one.
+	 */
+	public boolean dispatch(Client client, IRCMessage message) throws IRCException {
+		int numeric = message.getNumeric();
+		CommandHandler[] handlers;
+
+		if (numeric != -1) {
+			handlers = numerics[numeric];
+		} else {
+			handlers = verbs.get(message.getLine(), message.getCommandStart(), message.getCommandEnd());
+		}
+
+		if (handlers == null) {
+			return false;
+		}
+
+		for (CommandHandler handler : handlers) {
+			handler.handle(client, message);
+		}
+
+		return handlers.length > 0;
+	}
+
+	private static void checkNumeric(int numeric) {
+		if (numeric < 0 || numeric > 999) {
+			throw new IllegalArgumentException("Numerics are between 0 and 999: " + numeric);
+		}
+	}
+
+	private static CommandHandler[] append(CommandHandler[] handlers, CommandHandler handler) {
+		if (handlers == null) {
+			handlers = NONE;
+		}
+
+		CommandHandler[] copy = new CommandHandler[handlers.length + 1];
+		System.arraycopy(handlers, 0, copy, 0, handlers.length);
+		copy[handlers.length] = handler;
+		return copy;
+	}
+
+	private static CommandHandler[] remove(CommandHandler[] handlers, CommandHandler handler) {
+		if (handlers == null) {
+			return null;
+		}
+
+		for (int i = 0; i < handlers.length; i++) {
+			if (handlers[i] == handler) {
+				CommandHandler[] copy = new CommandHandler[handlers.length - 1];
+				System.arraycopy(handlers, 0, copy, 0, i);
+				System.arraycopy(handlers, i + 1, copy, i, copy.length - i);
+				return copy.length == 0 ? null : copy;
+			}
+		}
+
+		return handlers;
+	}
+
+	/**
+	 * Immutable open addressing hash table from upper case verbs to handlers.
+	 * Lookups hash the verb as it sits in the line, upper casing ASCII on
+	 * the fly.
+	 */
+	private static class VerbTable {
+		private final String[] keys;
+		private final CommandHandler[][] values;
+		private final int size;
+
+		VerbTable(int capacity) {
+			keys = new String[capacity];
+			values = new CommandHandler[capacity][];
+			size = 0;
+		}
+
+		private VerbTable(String[] keys, CommandHandler[][] values, int size) {
+			this.keys = keys;
+			this.values = values;
+			this.size = size;
+		}
+
+		CommandHandler[] get(String source, int start, int end) {
+			int mask = keys.length - 1;
+			int i = hash(source, start, end) & mask;
+
+			String key;
+			while ((key = keys[i]) != null) {
+				if (key.length() == end - start && key.regionMatches(true, 0, source, start, end - start)) {
+					return values[i];
+				}
+				i = (i + 1) & mask;
+			}
+
+			return null;
+		}
+
+		/**
+		 * @return A copy of the table with the verb mapped to the handlers
+		 *         (or removed if handlers is null).
+		 */
+		VerbTable with(String verb, CommandHandler[] handlers) {
+			int capacity = keys.length;
+			while ((size + 1) * 2 > capacity) {
+				capacity *= 2;
+			}
+
+			VerbTable table = new VerbTable(capacity);
+			int size = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] != null && !keys[i].equalsIgnoreCase(verb)) {
+					table.insert(keys[i], values[i]);
+					size++;
+				}
+			}
+
+			if (handlers != null) {
+				table.insert(verb.toUpperCase(), handlers);
+				size++;
+			}
+
+			return new VerbTable(table.keys, table.values, size);
+		}
+
+		private void insert(String key, CommandHandler[] handlers) {
+			int mask = keys.length - 1;
+			int i = hash(key, 0, key.length()) & mask;
+			while (keys[i] != null) {
+				i = (i + 1) & mask;
+			}
+
+			keys[i] = key;
+			values[i] = handlers;
+		}
+
+		private static int hash(String source, int start, int end) {
+			int hash = 0;
+			for (int i = start; i < end; i++) {
+				char c = source.charAt(i);
+				if (c >= 'a' && c <= 'z') {
+					c -= 'a' - 'A';
+				}
+				hash = 31 * hash + c;
+			}
+
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
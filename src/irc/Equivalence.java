@@ -0,0 +1,34 @@
+package irc;
+
+/**
+ * Decides when two keys of a PersistentMap are the same key.
+ */
+public interface Equivalence {
+	/**
+	 * Plain equals() and hashCode().
+	 */
+	Equivalence EQUALS = new Equivalence() {
+		@Override
+		public int hash(Object key) {
+			return key.hashCode();
+		}
+
+		@Override
+		public boolean equivalent(Object a, Object b) {
+			return a.equals(b);
+		}
+	};
+
+	/**
+	 * @param key The key.
+	 * @return A hash that is the same for all equivalent keys.
+	 */
+	int hash(Object key);
+
+	/**
+	 * @param a A key, possibly one passed to get().
+	 * @param b A key stored in the map.
+	 * @return Whether they are the same key.
+	 */
+	boolean equivalent(Object a, Object b);
+}
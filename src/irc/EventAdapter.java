@@ -0,0 +1,78 @@
+package irc;
+
+import irc.events.*;
+
+/**
+ * An EventListener and ModeListener with empty methods, to extend when only
+ * a few events are wanted.
+ *
+ * Events only calls a listener for the methods its class overrides, and
+ * Client doesn't build events that no listener is subscribed to, so
+ * extending this is cheaper than implementing every method of EventListener
+ * with empty bodies.
+ */
+public abstract class EventAdapter implements EventListener, ModeListener {
+	@Override
+	public void actionReceived(ActionEvent event) {
+	}
+
+	@Override
+	public void actionSent(ActionEvent event) {
+	}
+
+	@Override
+	public void channelJoined(JoinedEvent event) {
+	}
+
+	@Override
+	public void channelParted(PartedEvent event) {
+	}
+
+	@Override
+	public void channelModeChanged(ModeEvent event) {
+	}
+
+	@Override
+	public void channelSwitched(ChannelSwitchedEvent event) {
+	}
+
+	@Override
+	public void connected() {
+	}
+
+	@Override
+	public void disconnected() {
+	}
+
+	@Override
+	public void lineReceived(RawEvent event) {
+	}
+
+	@Override
+	public void lineSent(RawEvent event) {
+	}
+
+	@Override
+	public void messageReceived(MessageEvent event) {
+	}
+
+	@Override
+	public void messageSend(MessageEvent event) {
+	}
+
+	@Override
+	public void nickChanged(NickChangedEvent event) {
+	}
+
+	@Override
+	public void queryActionReceived(ActionEvent event) {
+	}
+
+	@Override
+	public void queryReceived(MessageEvent event) {
+	}
+
+	@Override
+	public void userQuit(QuitEvent event) {
+	}
+}
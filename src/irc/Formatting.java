@@ -0,0 +1,255 @@
+package irc;
+
+/**
+ * A line with its mIRC formatting codes taken out: the plain text, plus the
+ * style of each run of it.
+ *
+ * Runs are stored as pairs in one int array, [start, style, start, style...],
+ * each run lasting until the next one starts. A style packs the flags (BOLD,
+ * ITALIC...) into the low byte, the foreground colour into the next byte and
+ * the background colour into the one after; getForeground() and
+ * getBackground() unpack them, returning -1 for no colour.
+ *
+ * Most lines have no formatting at all. Those are found with one scan and
+ * share the line and an empty span array, so they cost one small object.
+ */
+public final class Formatting {
+	public static final int BOLD = 1;
+	public static final int ITALIC = 2;
+	public static final int UNDERLINE = 4;
+	public static final int STRIKETHROUGH = 8;
+	public static final int MONOSPACE = 16;
+	public static final int REVERSE = 32;
+
+	/**
+	 * No flags and no colours.
+	 */
+	public static final int PLAIN = 0xFFFF00;
+
+	private static final int NO_COLOUR = 0xFF;
+
+	private static final char BOLD_CODE = '\u0002';
+	private static final char COLOUR_CODE = '\u0003';
+	private static final char RESET_CODE = '\u000F';
+	private static final char MONOSPACE_CODE = '\u0011';
+	private static final char REVERSE_CODE = '\u0016';
+	private static final char ITALIC_CODE = '\u001D';
+	private static final char STRIKETHROUGH_CODE = '\u001E';
+	private static final char UNDERLINE_CODE = '\u001F';
+
+	// Bit n set if (char) n is a formatting code
+	private static final int CODES = 1 << BOLD_CODE | 1 << COLOUR_CODE | 1 << RESET_CODE | 1 << MONOSPACE_CODE
+			| 1 << REVERSE_CODE | 1 << ITALIC_CODE | 1 << STRIKETHROUGH_CODE | 1 << UNDERLINE_CODE;
+
+	private static final int[] NO_SPANS = new int[0];
+
+	private final String text;
+	private final int[] spans;
+
+	private Formatting(String text, int[] spans) {
+		this.text = text;
+		this.spans = spans;
+	}
+
+	/**
+	 * Parses the formatting codes out of a line in one pass.
+	 *
+	 * @param line The line, codes and all.
+	 * @return The text and its spans.
+	 */
+	public static Formatting parse(String line) {
+		int length = line.length();
+		int i = 0;
+		while (i < length && !isCode(line.charAt(i))) {
+			i++;
+		}
+		if (i == length) {
+			return new Formatting(line, NO_SPANS);
+		}
+
+		StringBuilder text = new StringBuilder(length);
+		text.append(line, 0, i);
+		int[] spans = new int[8];
+		int count = 0;
+		int style = PLAIN;
+
+		while (i < length) {
+			char c = line.charAt(i++);
+			if (!isCode(c)) {
+				text.append(c);
+				continue;
+			}
+
+			switch (c) {
+				case BOLD_CODE:
+					style ^= BOLD;
+					break;
+				case ITALIC_CODE:
+					style ^= ITALIC;
+					break;
+				case UNDERLINE_CODE:
+					style ^= UNDERLINE;
+					break;
+				case STRIKETHROUGH_CODE:
+					style ^= STRIKETHROUGH;
+					break;
+				case MONOSPACE_CODE:
+					style ^= MONOSPACE;
+					break;
+				case REVERSE_CODE:
+					style ^= REVERSE;
+					break;
+				case RESET_CODE:
+					style = PLAIN;
+					break;
+				case COLOUR_CODE:
+					// ^C on its own clears the colours; ^Cfg and ^Cfg,bg set them
+					int end = digits(line, i);
+					if (end == i) {
+						style |= NO_COLOUR << 8 | NO_COLOUR << 16;
+						break;
+					}
+					style = (style & ~(NO_COLOUR << 8)) | colour(line, i, end) << 8;
+					i = end;
+
+					if (i < length && line.charAt(i) == ',') {
+						end = digits(line, i + 1);
+						if (end > i + 1) {
+							style = (style & ~(NO_COLOUR << 16)) | colour(line, i + 1, end) << 16;
+							i = end;
+						}
+					}
+					break;
+			}
+
+			// Start a run here, unless one already starts here
+			int start = text.length();
+			if (count > 0 && spans[count - 2] == start) {
+				count -= 2;
+			}
+			if (count == 0 ? style != PLAIN : spans[count - 1] != style) {
+				if (count == spans.length) {
+					int[] grown = new int[count * 2];
+					System.arraycopy(spans, 0, grown, 0, count);
+					spans = grown;
+				}
+				spans[count++] = start;
+				spans[count++] = style;
+			}
+		}
+
+		// Drop a run left at the very end
+		if (count > 0 && spans[count - 2] == text.length()) {
+			count -= 2;
+		}
+
+		int[] trimmed = NO_SPANS;
+		if (count > 0) {
+			trimmed = new int[count];
+			System.arraycopy(spans, 0, trimmed, 0, count);
+		}
+		return new Formatting(text.toString(), trimmed);
+	}
+
+	/**
+	 * @return The text without formatting codes.
+	 */
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * @return Whether the line had no formatting, or only codes that had no
+	 *         effect. The whole text is then PLAIN.
+	 */
+	public boolean isPlain() {
+		return spans.length == 0;
+	}
+
+	/**
+	 * @return The number of styled runs. Text before the first is PLAIN.
+	 */
+	public int getSpanCount() {
+		return spans.length / 2;
+	}
+
+	/**
+	 * @param span The run, starting at 0.
+	 * @return Where it starts in the text.
+	 */
+	public int getStart(int span) {
+		return spans[span * 2];
+	}
+
+	/**
+	 * @param span The run, starting at 0.
+	 * @return Where it ends in the text (exclusive).
+	 */
+	public int getEnd(int span) {
+		return span * 2 + 2 < spans.length ? spans[span * 2 + 2] : text.length();
+	}
+
+	/**
+	 * @param span The run, starting at 0.
+	 * @return Its style, to be unpacked with the static methods.
+	 */
+	public int getStyle(int span) {
+		return spans[span * 2 + 1];
+	}
+
+	/**
+	 * @param style A style.
+	 * @param flag  BOLD, ITALIC...
+	 * @return Whether the flag is set.
+	 */
+	public static boolean is(int style, int flag) {
+		return (style & flag) != 0;
+	}
+
+	/**
+	 * @param style A style.
+	 * @return The mIRC foreground colour (0 to 99), or -1 for none.
+	 */
+	public static int getForeground(int style) {
+		int colour = (style >>> 8) & 0xFF;
+		return colour == NO_COLOUR ? -1 : colour;
+	}
+
+	/**
+	 * @param style A style.
+	 * @return The mIRC background colour (0 to 99), or -1 for none.
+	 */
+	public static int getBackground(int style) {
+		int colour = (style >>> 16) & 0xFF;
+		return colour == NO_COLOUR ? -1 : colour;
+	}
+
+	private static boolean isCode(char c) {
+		return c < 32 && (CODES & 1 << c) != 0;
+	}
+
+	/**
+	 * @return The end of up to two digits starting at i.
+	 */
+	private static int digits(String line, int i) {
+		int end = i;
+		while (end < line.length() && end < i + 2 && line.charAt(end) >= '0' && line.charAt(end) <= '9') {
+			end++;
+		}
+		return end;
+	}
+
+	private static int colour(String line, int start, int end) {
+		int colour = 0;
+		for (int i = start; i < end; i++) {
+			colour = colour * 10 + line.charAt(i) - '0';
+		}
+		// 99 means the default colour
+		return colour == 99 ? NO_COLOUR : colour;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
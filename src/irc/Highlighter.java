@@ -0,0 +1,265 @@
+package irc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Finds highlight words in messages: any number of keywords, plus our nick.
+ *
+ * All of the words are compiled into one Aho-Corasick automaton, so a
+ * message is checked in a single pass however many words there are, rather
+ * than once per word. Letters are compared the way the server compares
+ * nicks (see CaseMapping), and outside ASCII without regard to case.
+ *
+ * Keywords can be matched anywhere or only as whole words; the nick is a
+ * whole word, so "tom" isn't highlighted by "tomorrow", unless it is also a
+ * keyword that can be matched anywhere.
+ *
+ * A Highlighter never changes; the client builds a new one when the words,
+ * our nick or the case mapping change.
+ */
+public final class Highlighter {
+	/**
+	 * Matches nothing.
+	 */
+	public static final Highlighter NONE = new Highlighter(new ArrayList<String>(), new boolean[0], CaseMapping.DEFAULT);
+
+	private final CaseMapping caseMapping;
+	private final String[] words;
+	private final boolean[] wholeWord;
+
+	// The trie, one entry per state. Each state's edges are sorted by char.
+	private final char[][] edgeChars;
+	private final int[][] edgeTargets;
+	private final int[] failure;
+	// The word ending at each state, or -1, and the next state on the
+	// failure chain that ends a word, or -1
+	private final int[] output;
+	private final int[] nextOutput;
+	// Length of the word ending at each state
+	private final int[] depth;
+
+	private Highlighter(List<String> words, boolean[] wholeWord, CaseMapping caseMapping) {
+		this.caseMapping = caseMapping;
+		this.words = words.toArray(new String[words.size()]);
+		this.wholeWord = wholeWord.clone();
+
+		// Build the trie
+		List<char[]> chars = new ArrayList<char[]>();
+		List<int[]> targets = new ArrayList<int[]>();
+		List<Integer> outputs = new ArrayList<Integer>();
+		List<Integer> depths = new ArrayList<Integer>();
+		chars.add(new char[0]);
+		targets.add(new int[0]);
+		outputs.add(-1);
+		depths.add(0);
+
+		for (int w = 0; w < this.words.length; w++) {
+			String word = this.words[w];
+			int state = 0;
+			for (int i = 0; i < word.length(); i++) {
+				char c = fold(word.charAt(i));
+				int next = find(chars.get(state), targets.get(state), c);
+				if (next == -1) {
+					next = chars.size();
+					chars.add(new char[0]);
+					targets.add(new int[0]);
+					outputs.add(-1);
+					depths.add(i + 1);
+					addEdge(chars, targets, state, c, next);
+				}
+				state = next;
+			}
+			if (state == 0) {
+				continue;
+			}
+
+			// A word given twice (or a keyword that is also our nick) is
+			// kept once, and matched anywhere if either copy would be
+			int owner = outputs.get(state);
+			if (owner == -1) {
+				outputs.set(state, w);
+			} else if (!this.wholeWord[w]) {
+				this.wholeWord[owner] = false;
+			}
+		}
+
+		int states = chars.size();
+		edgeChars = chars.toArray(new char[states][]);
+		edgeTargets = targets.toArray(new int[states][]);
+		output = new int[states];
+		depth = new int[states];
+		for (int s = 0; s < states; s++) {
+			output[s] = outputs.get(s);
+			depth[s] = depths.get(s);
+		}
+
+		// Failure links, breadth first so shorter states are done first
+		failure = new int[states];
+		nextOutput = new int[states];
+		nextOutput[0] = -1;
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int child : edgeTargets[0]) {
+			failure[child] = 0;
+			nextOutput[child] = -1;
+			queue[tail++] = child;
+		}
+
+		while (head < tail) {
+			int state = queue[head++];
+			for (int e = 0; e < edgeChars[state].length; e++) {
+				char c = edgeChars[state][e];
+				int child = edgeTargets[state][e];
+
+				int f = failure[state];
+				int next;
+				while ((next = find(edgeChars[f], edgeTargets[f], c)) == -1 && f != 0) {
+					f = failure[f];
+				}
+				failure[child] = next == -1 ? 0 : next;
+
+				int fail = failure[child];
+				nextOutput[child] = output[fail] != -1 ? fail : nextOutput[fail];
+				queue[tail++] = child;
+			}
+		}
+	}
+
+	/**
+	 * Compiles the words to look for.
+	 *
+	 * @param nick        Our nick, matched as a whole word, or null.
+	 * @param keywords    Other words to look for.
+	 * @param wholeWords  Whether the keywords must be whole words too.
+	 * @param caseMapping How the server compares nicks.
+	 * @return The highlighter.
+	 */
+	public static Highlighter compile(String nick, Collection<String> keywords, boolean wholeWords, CaseMapping caseMapping) {
+		List<String> words = new ArrayList<String>(keywords.size() + 1);
+		if (nick != null && nick.length() > 0) {
+			words.add(nick);
+		}
+		for (String keyword : keywords) {
+			if (keyword.length() > 0) {
+				words.add(keyword);
+			}
+		}
+
+		boolean[] wholeWord = new boolean[words.size()];
+		Arrays.fill(wholeWord, wholeWords);
+		if (nick != null && nick.length() > 0) {
+			wholeWord[0] = true;
+		}
+
+		return new Highlighter(words, wholeWord, caseMapping);
+	}
+
+	/**
+	 * @return Whether there is anything to look for.
+	 */
+	public boolean isEmpty() {
+		return words.length == 0;
+	}
+
+	/**
+	 * Looks for the words in a message.
+	 *
+	 * @param text The message.
+	 * @return What was found; Highlights.NONE if nothing.
+	 */
+	public Highlights match(String text) {
+		return match(text, 0, text.length());
+	}
+
+	/**
+	 * Looks for the words in part of a line, without copying it.
+	 *
+	 * @param line  The line.
+	 * @param start Where the message starts.
+	 * @param end   Where it ends.
+	 * @return What was found, with offsets from start; Highlights.NONE if
+	 *         nothing.
+	 */
+	public Highlights match(String line, int start, int end) {
+		if (words.length == 0) {
+			return Highlights.NONE;
+		}
+
+		int[] ranges = null;
+		int count = 0;
+		int state = 0;
+
+		for (int i = start; i < end; i++) {
+			char c = fold(line.charAt(i));
+			int next;
+			while ((next = find(edgeChars[state], edgeTargets[state], c)) == -1 && state != 0) {
+				state = failure[state];
+			}
+			state = next == -1 ? 0 : next;
+
+			// Every word ending here: this state's, then down the chain
+			int s = output[state] != -1 ? state : nextOutput[state];
+			while (s != -1) {
+				int word = output[s];
+				int matchStart = i + 1 - depth[s];
+				if (!wholeWord[word] || (isBoundary(line, matchStart - 1, start, end) && isBoundary(line, i + 1, start, end))) {
+					if (ranges == null) {
+						ranges = new int[12];
+					} else if (count * 3 == ranges.length) {
+						ranges = Arrays.copyOf(ranges, ranges.length * 2);
+					}
+					ranges[count * 3] = matchStart - start;
+					ranges[count * 3 + 1] = i + 1 - start;
+					ranges[count * 3 + 2] = word;
+					count++;
+				}
+				s = nextOutput[s];
+			}
+		}
+
+		return count == 0 ? Highlights.NONE : new Highlights(words, ranges, count);
+	}
+
+	private char fold(char c) {
+		return c < 128 ? caseMapping.fold(c) : Character.toLowerCase(Character.toUpperCase(c));
+	}
+
+	/**
+	 * @return Whether position i is outside the message or not a nick
+	 *         character, so a word can end next to it.
+	 */
+	private static boolean isBoundary(String line, int i, int start, int end) {
+		if (i < start || i >= end) {
+			return true;
+		}
+		char c = line.charAt(i);
+		return !Character.isLetterOrDigit(c) && "[]\\`_^{|}-".indexOf(c) == -1;
+	}
+
+	private static int find(char[] chars, int[] targets, char c) {
+		int i = Arrays.binarySearch(chars, c);
+		return i < 0 ? -1 : targets[i];
+	}
+
+	private static void addEdge(List<char[]> chars, List<int[]> targets, int state, char c, int target) {
+		char[] oldChars = chars.get(state);
+		int[] oldTargets = targets.get(state);
+		int at = -Arrays.binarySearch(oldChars, c) - 1;
+
+		char[] newChars = new char[oldChars.length + 1];
+		int[] newTargets = new int[oldTargets.length + 1];
+		System.arraycopy(oldChars, 0, newChars, 0, at);
+		System.arraycopy(oldTargets, 0, newTargets, 0, at);
+		newChars[at] = c;
+		newTargets[at] = target;
+		System.arraycopy(oldChars, at, newChars, at + 1, oldChars.length - at);
+		System.arraycopy(oldTargets, at, newTargets, at + 1, oldTargets.length - at);
+
+		chars.set(state, newChars);
+		targets.set(state, newTargets);
+	}
+}
@@ -0,0 +1,65 @@
+package irc;
+
+/**
+ * Where highlight words were found in a message, in the order they end.
+ * Matches can overlap if one word is part of another.
+ *
+ * Offsets are into the message text of the event (MessageEvent.message or
+ * ActionEvent.action).
+ */
+public final class Highlights {
+	/**
+	 * Nothing found.
+	 */
+	public static final Highlights NONE = new Highlights(new String[0], new int[0], 0);
+
+	private final String[] words;
+	// [start, end, word] per match
+	private final int[] ranges;
+	private final int count;
+
+	Highlights(String[] words, int[] ranges, int count) {
+		this.words = words;
+		this.ranges = ranges;
+		this.count = count;
+	}
+
+	/**
+	 * @return Whether anything was found.
+	 */
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * @return The number of matches.
+	 */
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @param match The match, starting at 0.
+	 * @return Where it starts.
+	 */
+	public int getStart(int match) {
+		return ranges[match * 3];
+	}
+
+	/**
+	 * @param match The match, starting at 0.
+	 * @return Where it ends (exclusive).
+	 */
+	public int getEnd(int match) {
+		return ranges[match * 3 + 1];
+	}
+
+	/**
+	 * @param match The match, starting at 0.
+	 * @return The word that matched, as it was given (not as it appears in
+	 *         the message).
+	 */
+	public String getWord(int match) {
+		return words[ranges[match * 3 + 2]];
+	}
+}
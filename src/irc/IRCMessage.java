@@ -0,0 +1,440 @@
+package irc;
+
+/**
+ * A single line received from the IRC server, split into its parts.
+ *
+ * The line is parsed in one pass and only the offsets of each part are
+ * stored, so nothing is copied until a getter is called. The offset getters
+ * (getNickStart() and friends) can be used to work on the line directly
+ * without creating any strings at all.
+ *
+ * Format: [@tags] [:nick!user@host] COMMAND [params] [:trailing]
+ *
+ * Objects are reusable: call parse() again to parse another line.
+ */
+public class IRCMessage {
+	/**
+	 * RFC 1459 allows up to 15 parameters, trailing included.
+	 */
+	public static final int MAX_PARAMS = 15;
+
+	private String line;
+
+	private int tagsStart;
+	private int tagsEnd;
+
+	private int prefixStart;
+	private int prefixEnd;
+	private int nickEnd;
+	private int userStart;
+	private int userEnd;
+	private int hostStart;
+
+	private int commandStart;
+	private int commandEnd;
+	private int numeric;
+
+	private final int[] paramStart = new int[MAX_PARAMS];
+	private final int[] paramEnd = new int[MAX_PARAMS];
+	private int paramCount;
+	private boolean trailing;
+
+	/**
+	 * Parses a line, replacing whatever this object held before.
+	 *
+	 * @param line The line to parse, without \r\n.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public IRCMessage parse(String line) {
+		this.line = line;
+
+		tagsStart = tagsEnd = -1;
+		prefixStart = prefixEnd = nickEnd = -1;
+		userStart = userEnd = hostStart = -1;
+		numeric = -1;
+		paramCount = 0;
+		trailing = false;
+
+		int length = line.length();
+		int i = 0;
+
+		// IRCv3 message tags
+		if (i < length && line.charAt(i) == '@') {
+			tagsStart = ++i;
+			while (i < length && line.charAt(i) != ' ') {
+				i++;
+			}
+			tagsEnd = i;
+			i = skipSpaces(line, i);
+		}
+
+		// Prefix: either a server name or nick!user@host
+		if (i < length && line.charAt(i) == ':') {
+			prefixStart = ++i;
+			while (i < length) {
+				char c = line.charAt(i);
+				if (c == ' ') {
+					break;
+				} else if (c == '!' && nickEnd == -1) {
+					nickEnd = i;
+					userStart = i + 1;
+				} else if (c == '@' && hostStart == -1) {
+					if (nickEnd == -1) {
+						nickEnd = i;
+					} else {
+						userEnd = i;
+					}
+					hostStart = i + 1;
+				}
+				i++;
+			}
+			prefixEnd = i;
+
+			if (nickEnd == -1) {
+				nickEnd = prefixEnd;
+			}
+			if (userStart != -1 && userEnd == -1) {
+				userEnd = prefixEnd;
+			}
+			i = skipSpaces(line, i);
+		}
+
+		// Command
+		commandStart = i;
+		while (i < length && line.charAt(i) != ' ') {
+			i++;
+		}
+		commandEnd = i;
+
+		if (commandEnd - commandStart == 3) {
+			char a = line.charAt(commandStart);
+			char b = line.charAt(commandStart + 1);
+			char c = line.charAt(commandStart + 2);
+			if (isDigit(a) && isDigit(b) && isDigit(c)) {
+				numeric = (a - '0') * 100 + (b - '0') * 10 + (c - '0');
+			}
+		}
+
+		// Parameters
+		i = skipSpaces(line, i);
+		while (i < length && paramCount < MAX_PARAMS) {
+			if (line.charAt(i) == ':' || paramCount == MAX_PARAMS - 1) {
+				if (line.charAt(i) == ':') {
+					i++;
+				}
+				paramStart[paramCount] = i;
+				paramEnd[paramCount] = length;
+				paramCount++;
+				trailing = true;
+				break;
+			}
+
+			paramStart[paramCount] = i;
+			while (i < length && line.charAt(i) != ' ') {
+				i++;
+			}
+			paramEnd[paramCount] = i;
+			paramCount++;
+			i = skipSpaces(line, i);
+		}
+
+		return this;
+	}
+
+	/**
+	 * @return The whole line as it was received.
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	/**
+	 * @return Whether the line started with IRCv3 message tags.
+	 */
+	public boolean hasTags() {
+		return tagsStart != -1;
+	}
+
+	/**
+	 * Gets the (unescaped) value of a message tag.
+	 *
+	 * @param key The tag key, including any vendor prefix.
+	 * @return The value, "" if the tag has no value, or null if it isn't set.
+	 */
+	public String getTag(String key) {
+		if (tagsStart == -1) {
+			return null;
+		}
+
+		int i = tagsStart;
+		int keyLength = key.length();
+		while (i < tagsEnd) {
+			int end = line.indexOf(';', i);
+			if (end == -1 || end > tagsEnd) {
+				end = tagsEnd;
+			}
+
+			if (line.startsWith(key, i)) {
+				int afterKey = i + keyLength;
+				if (afterKey == end) {
+					return "";
+				} else if (line.charAt(afterKey) == '=') {
+					return unescapeTag(line, afterKey + 1, end);
+				}
+			}
+
+			i = end + 1;
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return Whether the line had a prefix (":nick!user@host" or ":server").
+	 */
+	public boolean hasPrefix() {
+		return prefixStart != -1;
+	}
+
+	/**
+	 * @return The prefix without the leading colon, or null if there isn't one.
+	 */
+	public String getPrefix() {
+		return prefixStart == -1 ? null : line.substring(prefixStart, prefixEnd);
+	}
+
+	/**
+	 * @return The nick (or server name) from the prefix, or null.
+	 */
+	public String getNick() {
+		return prefixStart == -1 ? null : line.substring(prefixStart, nickEnd);
+	}
+
+	/**
+	 * @return The user / ident from the prefix, or null.
+	 */
+	public String getUser() {
+		return userStart == -1 ? null : line.substring(userStart, userEnd);
+	}
+
+	/**
+	 * @return The host from the prefix, or null.
+	 */
+	public String getHost() {
+		return hostStart == -1 ? null : line.substring(hostStart, prefixEnd);
+	}
+
+	public int getPrefixStart() {
+		return prefixStart;
+	}
+
+	public int getPrefixEnd() {
+		return prefixEnd;
+	}
+
+	public int getNickStart() {
+		return prefixStart;
+	}
+
+	public int getNickEnd() {
+		return nickEnd;
+	}
+
+	public int getUserStart() {
+		return userStart;
+	}
+
+	public int getUserEnd() {
+		return userEnd;
+	}
+
+	public int getHostStart() {
+		return hostStart;
+	}
+
+	public int getHostEnd() {
+		return hostStart == -1 ? -1 : prefixEnd;
+	}
+
+	/**
+	 * Checks the nick in the prefix without creating a string.
+	 *
+	 * @param nick The nick to compare against (case sensitive).
+	 * @return Whether the prefix nick is the specified nick.
+	 */
+	public boolean nickEquals(String nick) {
+		return prefixStart != -1 && regionEquals(prefixStart, nickEnd, nick);
+	}
+
+	/**
+	 * Checks the nick in the prefix the way the server would.
+	 *
+	 * @param nick        The nick to compare against.
+	 * @param caseMapping The server's case mapping.
+	 * @return Whether the prefix nick is the specified nick.
+	 */
+	public boolean nickEquals(String nick, CaseMapping caseMapping) {
+		return prefixStart != -1 && caseMapping.regionEquals(line, prefixStart, nickEnd, nick);
+	}
+
+	/**
+	 * @return The command, as sent by the server.
+	 */
+	public String getCommand() {
+		return line.substring(commandStart, commandEnd);
+	}
+
+	public int getCommandStart() {
+		return commandStart;
+	}
+
+	public int getCommandEnd() {
+		return commandEnd;
+	}
+
+	/**
+	 * @return The numeric as an int if the command is a three digit numeric,
+	 *         else -1.
+	 */
+	public int getNumeric() {
+		return numeric;
+	}
+
+	/**
+	 * Case insensitive check of the command without creating a string.
+	 *
+	 * @param command The command to compare against.
+	 * @return Whether the command is the specified command.
+	 */
+	public boolean commandEquals(String command) {
+		int length = commandEnd - commandStart;
+		return length == command.length()
+				&& line.regionMatches(true, commandStart, command, 0, length);
+	}
+
+	/**
+	 * @return The number of parameters, including the trailing one.
+	 */
+	public int getParamCount() {
+		return paramCount;
+	}
+
+	/**
+	 * @param index The parameter index, starting at 0.
+	 * @return The parameter, or null if there aren't that many.
+	 */
+	public String getParam(int index) {
+		return index < paramCount ? line.substring(paramStart[index], paramEnd[index]) : null;
+	}
+
+	public int getParamStart(int index) {
+		return paramStart[index];
+	}
+
+	public int getParamEnd(int index) {
+		return paramEnd[index];
+	}
+
+	/**
+	 * Checks a parameter without creating a string.
+	 *
+	 * @param index The parameter index, starting at 0.
+	 * @param value The value to compare against (case sensitive).
+	 * @return Whether the parameter exists and is equal to the value.
+	 */
+	public boolean paramEquals(int index, String value) {
+		return index < paramCount && regionEquals(paramStart[index], paramEnd[index], value);
+	}
+
+	/**
+	 * Checks a nick or channel parameter the way the server would.
+	 *
+	 * @param index       The parameter index, starting at 0.
+	 * @param value       The value to compare against.
+	 * @param caseMapping The server's case mapping.
+	 * @return Whether the parameter exists and is the same name.
+	 */
+	public boolean paramEquals(int index, String value, CaseMapping caseMapping) {
+		return index < paramCount && caseMapping.regionEquals(line, paramStart[index], paramEnd[index], value);
+	}
+
+	/**
+	 * @return The last parameter (usually the trailing one), or null.
+	 */
+	public String getLastParam() {
+		return getParam(paramCount - 1);
+	}
+
+	/**
+	 * @return Whether the last parameter was given in trailing (":") form.
+	 */
+	public boolean hasTrailing() {
+		return trailing;
+	}
+
+	/**
+	 * @return The trailing parameter, or null if there isn't one.
+	 */
+	public String getTrailing() {
+		return trailing ? getLastParam() : null;
+	}
+
+	private boolean regionEquals(int start, int end, String value) {
+		return end - start == value.length() && line.startsWith(value, start);
+	}
+
+	private static int skipSpaces(String line, int i) {
+		while (i < line.length() && line.charAt(i) == ' ') {
+			i++;
+		}
+		return i;
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static String unescapeTag(String line, int start, int end) {
+		if (line.indexOf('\\', start) == -1 || line.indexOf('\\', start) >= end) {
+			return line.substring(start, end);
+		}
+
+		StringBuilder value = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (c != '\\') {
+				value.append(c);
+				continue;
+			}
+
+			if (++i == end) {
+				break;
+			}
+
+			switch (line.charAt(i)) {
+				case ':':
+					value.append(';');
+					break;
+				case 's':
+					value.append(' ');
+					break;
+				case 'r':
+					value.append('\r');
+					break;
+				case 'n':
+					value.append('\n');
+					break;
+				default:
+					value.append(line.charAt(i));
+					break;
+			}
+		}
+
+		return value.toString();
+	}
+
+	@Override
+	public String toString() {
+		return line;
+	}
+}
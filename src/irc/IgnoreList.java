@@ -0,0 +1,99 @@
+package irc;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The masks to ignore, and what to ignore from each. The masks are kept in
+ * a MaskIndex, so a line is only checked against the masks that could match
+ * it.
+ *
+ * An IgnoreList never changes; with() and without() return a new one.
+ */
+public final class IgnoreList {
+	/**
+	 * Ignores nothing.
+	 */
+	public static final IgnoreList EMPTY = new IgnoreList(MaskIndex.EMPTY);
+
+	// Flags are IgnoreType bits
+	private final MaskIndex masks;
+
+	private IgnoreList(MaskIndex masks) {
+		this.masks = masks;
+	}
+
+	/**
+	 * @param mask  The mask.
+	 * @param types What to ignore from it.
+	 * @return A list with the mask added, or its types replaced.
+	 */
+	public IgnoreList with(Mask mask, Set<IgnoreType> types) {
+		int bits = 0;
+		for (IgnoreType type : types) {
+			bits |= type.bit();
+		}
+		return new IgnoreList(masks.with(mask, bits));
+	}
+
+	/**
+	 * @param mask The mask.
+	 * @return A list without the mask.
+	 */
+	public IgnoreList without(Mask mask) {
+		MaskIndex without = masks.without(mask);
+		return without == masks ? this : new IgnoreList(without);
+	}
+
+	/**
+	 * Re-indexes the nicks under another case mapping.
+	 */
+	IgnoreList withCaseMapping(CaseMapping caseMapping) {
+		MaskIndex reindexed = masks.withCaseMapping(caseMapping);
+		return reindexed == masks ? this : new IgnoreList(reindexed);
+	}
+
+	/**
+	 * @return Whether nothing is ignored.
+	 */
+	public boolean isEmpty() {
+		return masks.isEmpty();
+	}
+
+	/**
+	 * @return The masks, in the order they were added.
+	 */
+	public Set<Mask> getMasks() {
+		return masks.getMasks();
+	}
+
+	/**
+	 * @param mask A mask.
+	 * @return What is ignored from it; empty if it isn't in the list.
+	 */
+	public Set<IgnoreType> getTypes(Mask mask) {
+		EnumSet<IgnoreType> types = EnumSet.noneOf(IgnoreType.class);
+		int bits = masks.getBits(mask);
+		for (IgnoreType type : IgnoreType.values()) {
+			if ((bits & type.bit()) != 0) {
+				types.add(type);
+			}
+		}
+		return types;
+	}
+
+	/**
+	 * Checks whether a line should be ignored.
+	 *
+	 * @param message The parsed line.
+	 * @param type    What kind of line it is.
+	 * @return Whether its sender is ignored for that kind of line.
+	 */
+	public boolean matches(IRCMessage message, IgnoreType type) {
+		return matches(message, type, new LineRegion());
+	}
+
+	boolean matches(IRCMessage message, IgnoreType type, LineRegion region) {
+		return masks.matches(message, type.bit(), region);
+	}
+}
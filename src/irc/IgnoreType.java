@@ -0,0 +1,51 @@
+package irc;
+
+/**
+ * What an ignore applies to.
+ */
+public enum IgnoreType {
+	/**
+	 * Messages and actions, to channels and to us.
+	 */
+	PRIVMSG(true),
+
+	/**
+	 * CTCP requests and replies other than ACTION.
+	 */
+	CTCP(true),
+
+	NOTICE(true),
+
+	JOIN(false),
+
+	PART(false),
+
+	QUIT(false),
+
+	NICK(false);
+
+	private final boolean dropped;
+
+	/**
+	 * @param dropped Whether lines are dropped whole. Otherwise they are
+	 *                still used to keep channel members right, and fire
+	 *                their events marked ignored.
+	 */
+	IgnoreType(boolean dropped) {
+		this.dropped = dropped;
+	}
+
+	/**
+	 * @return Whether ignored lines are dropped before anything else sees
+	 *         them. JOIN, PART, QUIT and NICK still update the channel
+	 *         members, and fire their events with ignored set so that
+	 *         listeners can do the same without showing the line.
+	 */
+	public boolean isDropped() {
+		return dropped;
+	}
+
+	int bit() {
+		return 1 << ordinal();
+	}
+}
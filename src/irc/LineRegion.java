@@ -0,0 +1,46 @@
+package irc;
+
+/**
+ * A reusable window onto part of a line, for looking things up in
+ * case-mapped maps without creating a substring first.
+ */
+final class LineRegion implements CharSequence {
+	private String line;
+	private int start;
+	private int end;
+
+	/**
+	 * Points the region at part of a line.
+	 *
+	 * @param line  The line.
+	 * @param start Where the region starts.
+	 * @param end   Where the region ends.
+	 * @return Returns itself to allow method chaining.
+	 */
+	LineRegion set(String line, int start, int end) {
+		this.line = line;
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return line.charAt(start + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int from, int to) {
+		return line.substring(start + from, start + to);
+	}
+
+	@Override
+	public String toString() {
+		return line.substring(start, end);
+	}
+}
@@ -0,0 +1,169 @@
+package irc;
+
+import irc.communicator.User;
+
+/**
+ * A nick!user@host mask, eg "*!*@*.example.com", compiled for matching.
+ *
+ * "*" matches any run of characters and "?" any one. Missing parts are
+ * filled in the usual way: "nick" means "nick!*@*", "user@host" means
+ * "*!user@host" and "*.example.com" (with a dot) means "*!*@*.example.com".
+ *
+ * The nick is compared using the server's case mapping, the user and host
+ * ignoring ASCII case. Matching works on the prefix of a received line in
+ * place, so checking a line against a mask creates no strings.
+ */
+public final class Mask {
+	private final String mask;
+	private final String nick;
+	private final String user;
+	private final String host;
+
+	/**
+	 * @param mask The mask.
+	 */
+	public Mask(String mask) {
+		int bang = mask.indexOf('!');
+		int at = mask.indexOf('@', bang + 1);
+
+		String nick;
+		String user;
+		String host;
+		if (bang != -1) {
+			nick = mask.substring(0, bang);
+			user = at == -1 ? mask.substring(bang + 1) : mask.substring(bang + 1, at);
+			host = at == -1 ? "*" : mask.substring(at + 1);
+		} else if (at != -1) {
+			nick = "*";
+			user = mask.substring(0, at);
+			host = mask.substring(at + 1);
+		} else if (mask.indexOf('.') != -1) {
+			nick = "*";
+			user = "*";
+			host = mask;
+		} else {
+			nick = mask;
+			user = "*";
+			host = "*";
+		}
+
+		this.nick = nick.length() == 0 ? "*" : nick;
+		this.user = user.length() == 0 ? "*" : user;
+		this.host = fold(host.length() == 0 ? "*" : host);
+		this.mask = this.nick + "!" + this.user + "@" + this.host;
+	}
+
+	/**
+	 * @return The nick part, if it has no wildcards, else null.
+	 */
+	String getLiteralNick() {
+		return isLiteral(nick) ? nick : null;
+	}
+
+	/**
+	 * @return The lower case end of the host part after its last wildcard,
+	 *         eg ".example.com"; "" if it ends with a wildcard.
+	 */
+	String getHostSuffix() {
+		int i = host.length();
+		while (i > 0 && host.charAt(i - 1) != '*' && host.charAt(i - 1) != '?') {
+			i--;
+		}
+		return host.substring(i);
+	}
+
+	/**
+	 * Checks the prefix of a parsed line.
+	 *
+	 * @param message     The parsed line, with a nick!user@host prefix.
+	 * @param caseMapping How the server compares nicks.
+	 * @return Whether the mask matches.
+	 */
+	public boolean matches(IRCMessage message, CaseMapping caseMapping) {
+		String line = message.getLine();
+		return message.getHostStart() != -1
+				&& glob(host, line, message.getHostStart(), message.getHostEnd(), CaseMapping.ASCII)
+				&& glob(nick, line, message.getNickStart(), message.getNickEnd(), caseMapping)
+				&& (message.getUserStart() == -1
+						? glob(user, "", 0, 0, CaseMapping.ASCII)
+						: glob(user, line, message.getUserStart(), message.getUserEnd(), CaseMapping.ASCII));
+	}
+
+	/**
+	 * Checks a user. An unknown user or host only matches "*".
+	 *
+	 * @param user        The user.
+	 * @param caseMapping How the server compares nicks.
+	 * @return Whether the mask matches.
+	 */
+	public boolean matches(User user, CaseMapping caseMapping) {
+		String ident = user.user == null ? "" : user.user;
+		String host = user.host == null ? "" : user.host;
+		return glob(nick, user.nick, 0, user.nick.length(), caseMapping)
+				&& glob(this.user, ident, 0, ident.length(), CaseMapping.ASCII)
+				&& glob(this.host, host, 0, host.length(), CaseMapping.ASCII);
+	}
+
+	/**
+	 * Matches a glob against a region, backtracking only to the last "*",
+	 * so it never takes more than pattern length times region length steps.
+	 */
+	private static boolean glob(String pattern, String text, int start, int end, CaseMapping caseMapping) {
+		int length = pattern.length();
+		int p = 0;
+		int t = start;
+		int starP = -1;
+		int starT = -1;
+
+		while (t < end) {
+			char c = p < length ? pattern.charAt(p) : 0;
+			if (p < length && c == '*') {
+				starP = p++;
+				starT = t;
+			} else if (p < length && (c == '?' || caseMapping.fold(c) == caseMapping.fold(text.charAt(t)))) {
+				p++;
+				t++;
+			} else if (starP != -1) {
+				p = starP + 1;
+				t = ++starT;
+			} else {
+				return false;
+			}
+		}
+
+		while (p < length && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == length;
+	}
+
+	private static boolean isLiteral(String part) {
+		return part.indexOf('*') == -1 && part.indexOf('?') == -1;
+	}
+
+	private static String fold(String s) {
+		StringBuilder folded = new StringBuilder(s.length());
+		for (int i = 0; i < s.length(); i++) {
+			folded.append(CaseMapping.ASCII.fold(s.charAt(i)));
+		}
+		return folded.toString();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof Mask && ((Mask) o).mask.equals(mask);
+	}
+
+	@Override
+	public int hashCode() {
+		return mask.hashCode();
+	}
+
+	/**
+	 * @return The full mask, eg "*!*@*.example.com".
+	 */
+	@Override
+	public String toString() {
+		return mask;
+	}
+}
@@ -0,0 +1,294 @@
+package irc;
+
+import irc.communicator.User;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of masks, each with some flag bits, indexed so that a line or a
+ * user is only checked against the masks that could match it.
+ *
+ * Masks with a plain nick ("spammer!*@*") are kept in a map by nick. Masks
+ * whose host ends in plain text ("*!*@*.example.com") are kept in a trie of
+ * host suffixes, walked from the end of the host being checked. Only what's
+ * left, such as "*!bot@*", is checked one by one, so hundreds of masks cost
+ * about the same as a few.
+ *
+ * Used for ignores, and for channel ban, exception and invite lists. A
+ * MaskIndex never changes; with() and without() return a new one.
+ */
+public final class MaskIndex {
+	/**
+	 * No masks.
+	 */
+	public static final MaskIndex EMPTY = new MaskIndex(new LinkedHashMap<Mask, Integer>(), CaseMapping.DEFAULT);
+
+	private static final Rule[] NO_RULES = new Rule[0];
+
+	private final Map<Mask, Integer> masks;
+	private final CaseMapping caseMapping;
+
+	private final PersistentMap<String, Rule[]> byNick;
+	private final HostNode byHost = new HostNode();
+	private final Rule[] others;
+
+	private MaskIndex(LinkedHashMap<Mask, Integer> masks, CaseMapping caseMapping) {
+		this.masks = masks;
+		this.caseMapping = caseMapping;
+
+		PersistentMap<String, Rule[]> byNick = PersistentMap.empty(caseMapping);
+		Rule[] others = NO_RULES;
+
+		for (Map.Entry<Mask, Integer> entry : masks.entrySet()) {
+			Rule rule = new Rule(entry.getKey(), entry.getValue());
+			String nick = rule.mask.getLiteralNick();
+			String suffix = rule.mask.getHostSuffix();
+
+			if (nick != null) {
+				Rule[] rules = byNick.get(nick);
+				byNick = byNick.with(nick, add(rules == null ? NO_RULES : rules, rule));
+			} else if (suffix.length() > 0) {
+				HostNode node = byHost;
+				for (int i = suffix.length() - 1; i >= 0; i--) {
+					node = node.childFor(suffix.charAt(i));
+				}
+				node.rules = add(node.rules, rule);
+			} else {
+				others = add(others, rule);
+			}
+		}
+
+		this.byNick = byNick;
+		this.others = others;
+	}
+
+	/**
+	 * @param caseMapping How nicks are compared.
+	 * @return An empty index using the case mapping.
+	 */
+	public static MaskIndex empty(CaseMapping caseMapping) {
+		return caseMapping == EMPTY.caseMapping ? EMPTY : new MaskIndex(new LinkedHashMap<Mask, Integer>(), caseMapping);
+	}
+
+	/**
+	 * Builds an index in one go, eg from a whole ban list, rather than one
+	 * with() at a time.
+	 *
+	 * @param masks       The masks, in order; repeats are kept once.
+	 * @param bits        The flags for every mask.
+	 * @param caseMapping How nicks are compared.
+	 * @return An index of the masks.
+	 */
+	public static MaskIndex of(Collection<Mask> masks, int bits, CaseMapping caseMapping) {
+		if (masks.isEmpty()) {
+			return empty(caseMapping);
+		}
+
+		LinkedHashMap<Mask, Integer> map = new LinkedHashMap<Mask, Integer>();
+		for (Mask mask : masks) {
+			map.put(mask, bits);
+		}
+		return new MaskIndex(map, caseMapping);
+	}
+
+	/**
+	 * @param mask The mask.
+	 * @param bits Its flags.
+	 * @return An index with the mask added, or its flags replaced.
+	 */
+	public MaskIndex with(Mask mask, int bits) {
+		Integer old = masks.get(mask);
+		if (old != null && old == bits) {
+			return this;
+		}
+
+		LinkedHashMap<Mask, Integer> masks = new LinkedHashMap<Mask, Integer>(this.masks);
+		masks.put(mask, bits);
+		return new MaskIndex(masks, caseMapping);
+	}
+
+	/**
+	 * @param mask The mask.
+	 * @return An index without the mask.
+	 */
+	public MaskIndex without(Mask mask) {
+		if (!masks.containsKey(mask)) {
+			return this;
+		}
+
+		LinkedHashMap<Mask, Integer> masks = new LinkedHashMap<Mask, Integer>(this.masks);
+		masks.remove(mask);
+		return new MaskIndex(masks, caseMapping);
+	}
+
+	/**
+	 * Re-indexes the nicks under another case mapping.
+	 *
+	 * @param caseMapping How nicks are compared.
+	 * @return An index of the same masks using the case mapping.
+	 */
+	public MaskIndex withCaseMapping(CaseMapping caseMapping) {
+		if (caseMapping == this.caseMapping) {
+			return this;
+		}
+		return new MaskIndex(new LinkedHashMap<Mask, Integer>(masks), caseMapping);
+	}
+
+	/**
+	 * @return Whether there are no masks.
+	 */
+	public boolean isEmpty() {
+		return masks.isEmpty();
+	}
+
+	/**
+	 * @return The number of masks.
+	 */
+	public int size() {
+		return masks.size();
+	}
+
+	/**
+	 * @return The masks, in the order they were added.
+	 */
+	public Set<Mask> getMasks() {
+		return Collections.unmodifiableSet(masks.keySet());
+	}
+
+	/**
+	 * @param mask A mask.
+	 * @return Its flags, or 0 if it isn't in the index.
+	 */
+	public int getBits(Mask mask) {
+		Integer bits = masks.get(mask);
+		return bits == null ? 0 : bits;
+	}
+
+	/**
+	 * Checks a user, using what we know of their ident and host.
+	 *
+	 * @param user The user.
+	 * @param bit  Only masks with this flag are checked.
+	 * @return Whether a mask matches.
+	 */
+	public boolean matches(User user, int bit) {
+		if (masks.isEmpty()) {
+			return false;
+		}
+
+		String host = user.host == null ? "" : user.host;
+		return find(byNick.get(user.nick), user, bit) || findByHost(host, 0, host.length(), user, bit)
+				|| find(others, user, bit);
+	}
+
+	/**
+	 * Checks the nick!user@host prefix of a parsed line in place.
+	 *
+	 * @param message The parsed line.
+	 * @param bit     Only masks with this flag are checked.
+	 * @param region  Reused to look up the nick.
+	 * @return Whether a mask matches; never for lines without a host.
+	 */
+	boolean matches(IRCMessage message, int bit, LineRegion region) {
+		if (masks.isEmpty() || message.getHostStart() == -1) {
+			return false;
+		}
+
+		String line = message.getLine();
+		return find(byNick.get(region.set(line, message.getNickStart(), message.getNickEnd())), message, bit)
+				|| findByHost(line, message.getHostStart(), message.getHostEnd(), message, bit)
+				|| find(others, message, bit);
+	}
+
+	private boolean findByHost(String source, int start, int end, Object subject, int bit) {
+		HostNode node = byHost;
+		for (int i = end - 1; i >= start; i--) {
+			node = node.child(CaseMapping.ASCII.fold(source.charAt(i)));
+			if (node == null) {
+				return false;
+			}
+			if (find(node.rules, subject, bit)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param subject An IRCMessage or a User.
+	 */
+	private boolean find(Rule[] rules, Object subject, int bit) {
+		if (rules == null) {
+			return false;
+		}
+
+		for (Rule rule : rules) {
+			if ((rule.bits & bit) == 0) {
+				continue;
+			}
+			if (subject instanceof User
+					? rule.mask.matches((User) subject, caseMapping)
+					: rule.mask.matches((IRCMessage) subject, caseMapping)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Rule[] add(Rule[] rules, Rule rule) {
+		Rule[] added = Arrays.copyOf(rules, rules.length + 1);
+		added[rules.length] = rule;
+		return added;
+	}
+
+	private static final class Rule {
+		final Mask mask;
+		final int bits;
+
+		Rule(Mask mask, int bits) {
+			this.mask = mask;
+			this.bits = bits;
+		}
+	}
+
+	/**
+	 * A trie of host suffixes, read backwards. Only changed while the index
+	 * is being built.
+	 */
+	private static final class HostNode {
+		char[] chars = new char[0];
+		HostNode[] children = new HostNode[0];
+		Rule[] rules = NO_RULES;
+
+		HostNode child(char c) {
+			int i = Arrays.binarySearch(chars, c);
+			return i < 0 ? null : children[i];
+		}
+
+		HostNode childFor(char c) {
+			int i = Arrays.binarySearch(chars, c);
+			if (i >= 0) {
+				return children[i];
+			}
+
+			i = -i - 1;
+			HostNode child = new HostNode();
+			char[] newChars = new char[chars.length + 1];
+			HostNode[] newChildren = new HostNode[children.length + 1];
+			System.arraycopy(chars, 0, newChars, 0, i);
+			System.arraycopy(children, 0, newChildren, 0, i);
+			newChars[i] = c;
+			newChildren[i] = child;
+			System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+			System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+			chars = newChars;
+			children = newChildren;
+			return child;
+		}
+	}
+}
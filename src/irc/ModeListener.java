@@ -0,0 +1,18 @@
+package irc;
+
+import irc.events.ModeEvent;
+
+/**
+ * Listens for channel mode changes. Kept apart from EventListener so that
+ * existing listeners don't have to implement it; implement it alongside
+ * EventListener, or extend EventAdapter, to receive mode events.
+ */
+public interface ModeListener {
+	/**
+	 * Fired when a channel's modes change, including members being opped or
+	 * voiced. The channel's modes and members have already been updated.
+	 *
+	 * @param event The event object.
+	 */
+	public void channelModeChanged(ModeEvent event);
+}
@@ -0,0 +1,118 @@
+package irc;
+
+import java.util.HashMap;
+
+/**
+ * Collects the nicks from 353 (RPL_NAMREPLY) lines until the 366
+ * (RPL_ENDOFNAMES) for the channel arrives, so the channel's roster can be
+ * built off to the side and swapped in all at once.
+ *
+ * Understands the multi-prefix ("@+nick") and userhost-in-names
+ * ("nick!user@host") formats.
+ */
+class NamesAccumulator {
+	private final HashMap<String, Batch> pending = new HashMap<String, Batch>();
+
+	/**
+	 * The entries staged for one channel, in parallel arrays.
+	 */
+	static class Batch {
+		int size = 0;
+		String[] nicks = new String[16];
+		String[] idents = new String[16];
+		String[] hosts = new String[16];
+		int[] modes = new int[16];
+
+		private void add(String nick, String ident, String host, int mode) {
+			if (size == nicks.length) {
+				int capacity = size * 2;
+				nicks = copyOf(nicks, capacity);
+				idents = copyOf(idents, capacity);
+				hosts = copyOf(hosts, capacity);
+
+				int[] newModes = new int[capacity];
+				System.arraycopy(modes, 0, newModes, 0, size);
+				modes = newModes;
+			}
+
+			nicks[size] = nick;
+			idents[size] = ident;
+			hosts[size] = host;
+			modes[size] = mode;
+			size++;
+		}
+
+		private static String[] copyOf(String[] array, int capacity) {
+			String[] copy = new String[capacity];
+			System.arraycopy(array, 0, copy, 0, array.length);
+			return copy;
+		}
+	}
+
+	/**
+	 * Stages the space separated nicks from a 353 line.
+	 *
+	 * @param channel  The channel name.
+	 * @param line     The line.
+	 * @param start    Where the nicks start in the line.
+	 * @param end      Where the nicks end in the line.
+	 * @param prefixes The server's prefixes.
+	 */
+	synchronized void add(String channel, String line, int start, int end, Prefixes prefixes) {
+		Batch batch = pending.get(channel);
+		if (batch == null) {
+			batch = new Batch();
+			pending.put(channel, batch);
+		}
+
+		while (start < end) {
+			int space = line.indexOf(' ', start);
+			if (space == -1 || space > end) {
+				space = end;
+			}
+
+			if (space > start) {
+				int symbols = prefixes.countSymbols(line, start, space);
+				int modes = symbols == 0 ? 0 : prefixes.parseSymbols(line, start, space);
+				int nickStart = start + symbols;
+
+				// userhost-in-names: nick!user@host
+				int nickEnd = space;
+				String ident = null;
+				String host = null;
+				for (int i = nickStart; i < space; i++) {
+					char c = line.charAt(i);
+					if (c == '!' && nickEnd == space) {
+						nickEnd = i;
+					} else if (c == '@' && nickEnd != space) {
+						ident = line.substring(nickEnd + 1, i);
+						host = line.substring(i + 1, space);
+						break;
+					}
+				}
+
+				batch.add(line.substring(nickStart, nickEnd), ident, host, modes);
+			}
+
+			start = space + 1;
+		}
+	}
+
+	/**
+	 * Takes the staged entries for a channel.
+	 *
+	 * @param channel The channel name.
+	 * @return The entries, or an empty batch if there were none.
+	 */
+	synchronized Batch finish(String channel) {
+		Batch batch = pending.remove(channel);
+		return batch == null ? new Batch() : batch;
+	}
+
+	/**
+	 * Drops everything staged, eg on disconnect.
+	 */
+	synchronized void clear() {
+		pending.clear();
+	}
+}
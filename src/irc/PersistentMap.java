@@ -0,0 +1,416 @@
+package irc;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map. with() and without() return a new map that shares
+ * almost all of its structure with the old one, so a change costs a handful
+ * of small array copies rather than a copy of the whole map, and anyone still
+ * holding the old map keeps seeing it exactly as it was.
+ *
+ * That makes it safe to hand to other threads without locking: a reader can
+ * iterate a map while the protocol thread carries on building new ones.
+ *
+ * Internally it's a hash array mapped trie: each node covers five bits of the
+ * key's hash and only stores the slots that are in use. Keys with the same
+ * hash end up together in a collision node. Null keys and values are not
+ * allowed.
+ *
+ * Keys are compared with an Equivalence, by default equals(). A map created
+ * with empty(CaseMapping.RFC1459), for example, finds "[Foo]" under "{foo}".
+ *
+ * The Map methods that would change the map (put, remove...) throw
+ * UnsupportedOperationException.
+ *
+ * @param <K> The key type.
+ * @param <V> The value type.
+ */
+public final class PersistentMap<K, V> extends AbstractMap<K, V> {
+	@SuppressWarnings("rawtypes")
+	private static final PersistentMap EMPTY = new PersistentMap(Equivalence.EQUALS, null, 0);
+
+	private final Equivalence equivalence;
+	private final Node root;
+	private final int size;
+
+	private PersistentMap(Equivalence equivalence, Node root, int size) {
+		this.equivalence = equivalence;
+		this.root = root;
+		this.size = size;
+	}
+
+	/**
+	 * @return The empty map.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K, V> PersistentMap<K, V> empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @param equivalence How to compare keys.
+	 * @return An empty map using the equivalence.
+	 */
+	public static <K, V> PersistentMap<K, V> empty(Equivalence equivalence) {
+		return new PersistentMap<K, V>(equivalence, null, 0);
+	}
+
+	/**
+	 * @return How this map compares keys.
+	 */
+	public Equivalence getEquivalence() {
+		return equivalence;
+	}
+
+	/**
+	 * Gets a value. With a CaseMapping the key can be any CharSequence, not
+	 * just a String.
+	 *
+	 * @param key The key.
+	 * @return The value, or null.
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object key) {
+		return root == null ? null : (V) root.find(equivalence, 0, hash(equivalence, key), key);
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns a map with the key set to the value.
+	 *
+	 * @param key   The key.
+	 * @param value The value.
+	 * @return The new map, or this map if the key already had that value.
+	 */
+	public PersistentMap<K, V> with(K key, V value) {
+		if (key == null || value == null) {
+			throw new NullPointerException();
+		}
+
+		boolean[] added = new boolean[1];
+		Node node = root == null ? BitmapNode.EMPTY : root;
+		Node newRoot = node.with(equivalence, 0, hash(equivalence, key), key, value, added);
+
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentMap<K, V>(equivalence, newRoot, added[0] ? size + 1 : size);
+	}
+
+	/**
+	 * Returns a map without the key.
+	 *
+	 * @param key The key.
+	 * @return The new map, or this map if the key wasn't in it.
+	 */
+	public PersistentMap<K, V> without(Object key) {
+		if (root == null) {
+			return this;
+		}
+
+		Node newRoot = root.without(equivalence, 0, hash(equivalence, key), key);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentMap<K, V>(equivalence, newRoot, size - 1);
+	}
+
+	@Override
+	public Set<Entry<K, V>> entrySet() {
+		return new AbstractSet<Entry<K, V>>() {
+			@Override
+			public Iterator<Entry<K, V>> iterator() {
+				return new EntryIterator<K, V>(root);
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	private static int hash(Equivalence equivalence, Object key) {
+		int h = equivalence.hash(key);
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * A node's array holds key, value pairs. In a BitmapNode a null key means
+	 * the value is a child node.
+	 */
+	private static abstract class Node {
+		final Object[] array;
+
+		Node(Object[] array) {
+			this.array = array;
+		}
+
+		abstract Object find(Equivalence eq, int shift, int hash, Object key);
+
+		abstract Node with(Equivalence eq, int shift, int hash, Object key, Object value, boolean[] added);
+
+		/**
+		 * @return The new node, this if the key wasn't found, or null if the
+		 *         node is now empty.
+		 */
+		abstract Node without(Equivalence eq, int shift, int hash, Object key);
+	}
+
+	private static final class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+
+		BitmapNode(int bitmap, Object[] array) {
+			super(array);
+			this.bitmap = bitmap;
+		}
+
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1)) * 2;
+		}
+
+		@Override
+		Object find(Equivalence eq, int shift, int hash, Object key) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((bitmap & bit) == 0) {
+				return null;
+			}
+
+			int i = index(bit);
+			Object k = array[i];
+			if (k == null) {
+				return ((Node) array[i + 1]).find(eq, shift + 5, hash, key);
+			}
+			return eq.equivalent(key, k) ? array[i + 1] : null;
+		}
+
+		@Override
+		Node with(Equivalence eq, int shift, int hash, Object key, Object value, boolean[] added) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			int i = index(bit);
+
+			if ((bitmap & bit) == 0) {
+				Object[] newArray = new Object[array.length + 2];
+				System.arraycopy(array, 0, newArray, 0, i);
+				newArray[i] = key;
+				newArray[i + 1] = value;
+				System.arraycopy(array, i, newArray, i + 2, array.length - i);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, newArray);
+			}
+
+			Object k = array[i];
+			Object v = array[i + 1];
+
+			if (k == null) {
+				Node child = ((Node) v).with(eq, shift + 5, hash, key, value, added);
+				return child == v ? this : set(i + 1, child);
+			}
+
+			if (eq.equivalent(key, k)) {
+				return v == value ? this : set(i + 1, value);
+			}
+
+			// Two keys in the same slot: push them both down a level
+			added[0] = true;
+			Node child = pair(eq, shift + 5, k, v, hash, key, value);
+			Object[] newArray = array.clone();
+			newArray[i] = null;
+			newArray[i + 1] = child;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		@Override
+		Node without(Equivalence eq, int shift, int hash, Object key) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+
+			int i = index(bit);
+			Object k = array[i];
+
+			if (k == null) {
+				Node child = (Node) array[i + 1];
+				Node newChild = child.without(eq, shift + 5, hash, key);
+				if (newChild == child) {
+					return this;
+				} else if (newChild != null) {
+					return set(i + 1, newChild);
+				}
+			} else if (!eq.equivalent(key, k)) {
+				return this;
+			}
+
+			if (bitmap == bit) {
+				return null;
+			}
+
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new BitmapNode(bitmap & ~bit, newArray);
+		}
+
+		private BitmapNode set(int i, Object value) {
+			Object[] newArray = array.clone();
+			newArray[i] = value;
+			return new BitmapNode(bitmap, newArray);
+		}
+
+		private static Node pair(Equivalence eq, int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+			int hash1 = hash(eq, key1);
+			if (hash1 == hash2) {
+				return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+			}
+
+			boolean[] ignored = new boolean[1];
+			return EMPTY.with(eq, shift, hash1, key1, value1, ignored)
+					.with(eq, shift, hash2, key2, value2, ignored);
+		}
+	}
+
+	private static final class CollisionNode extends Node {
+		final int hash;
+
+		CollisionNode(int hash, Object[] array) {
+			super(array);
+			this.hash = hash;
+		}
+
+		private int indexOf(Equivalence eq, Object key) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (eq.equivalent(key, array[i])) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		@Override
+		Object find(Equivalence eq, int shift, int hash, Object key) {
+			int i = indexOf(eq, key);
+			return i == -1 ? null : array[i + 1];
+		}
+
+		@Override
+		Node with(Equivalence eq, int shift, int hash, Object key, Object value, boolean[] added) {
+			if (hash != this.hash) {
+				// Can only happen above the last level; nest this node
+				BitmapNode node = new BitmapNode(1 << ((this.hash >>> shift) & 31), new Object[]{null, this});
+				return node.with(eq, shift, hash, key, value, added);
+			}
+
+			int i = indexOf(eq, key);
+			if (i != -1) {
+				if (array[i + 1] == value) {
+					return this;
+				}
+				Object[] newArray = array.clone();
+				newArray[i + 1] = value;
+				return new CollisionNode(hash, newArray);
+			}
+
+			Object[] newArray = new Object[array.length + 2];
+			System.arraycopy(array, 0, newArray, 0, array.length);
+			newArray[array.length] = key;
+			newArray[array.length + 1] = value;
+			added[0] = true;
+			return new CollisionNode(hash, newArray);
+		}
+
+		@Override
+		Node without(Equivalence eq, int shift, int hash, Object key) {
+			int i = indexOf(eq, key);
+			if (i == -1) {
+				return this;
+			} else if (array.length == 2) {
+				return null;
+			}
+
+			Object[] newArray = new Object[array.length - 2];
+			System.arraycopy(array, 0, newArray, 0, i);
+			System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+			return new CollisionNode(hash, newArray);
+		}
+	}
+
+	/**
+	 * Walks the trie depth first with an explicit stack. A 32 bit hash is
+	 * used up after seven levels, plus one for a collision node.
+	 */
+	private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+		private final Object[][] arrays = new Object[8][];
+		private final int[] indexes = new int[8];
+		private int depth;
+		private Entry<K, V> next;
+
+		EntryIterator(Node root) {
+			if (root == null) {
+				depth = -1;
+			} else {
+				arrays[0] = root.array;
+			}
+			advance();
+		}
+
+		@SuppressWarnings("unchecked")
+		private void advance() {
+			while (depth >= 0) {
+				Object[] array = arrays[depth];
+				int i = indexes[depth];
+				if (i == array.length) {
+					depth--;
+					continue;
+				}
+				indexes[depth] = i + 2;
+
+				if (array[i] == null) {
+					depth++;
+					arrays[depth] = ((Node) array[i + 1]).array;
+					indexes[depth] = 0;
+				} else {
+					next = new SimpleImmutableEntry<K, V>((K) array[i], (V) array[i + 1]);
+					return;
+				}
+			}
+			next = null;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		@Override
+		public Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			Entry<K, V> entry = next;
+			advance();
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package irc;
+
+/**
+ * The channel member prefixes a server supports, from PREFIX in the 005
+ * reply, eg "(ov)@+".
+ *
+ * Member modes are stored as bitsets: bit 0 is the first (highest) mode in
+ * PREFIX, bit 1 the next and so on.
+ */
+public class Prefixes {
+	/**
+	 * What to assume if the server doesn't send PREFIX.
+	 */
+	public static final Prefixes DEFAULT = new Prefixes("(ov)@+");
+
+	private final String modes;
+	private final String symbols;
+
+	/**
+	 * @param value The PREFIX value, eg "(qaohv)~&@%+".
+	 */
+	public Prefixes(String value) {
+		int close = value.indexOf(')');
+		if (value.startsWith("(") && close != -1) {
+			modes = value.substring(1, close);
+			symbols = value.substring(close + 1);
+		} else {
+			modes = "";
+			symbols = "";
+		}
+	}
+
+	/**
+	 * @return The number of prefixes.
+	 */
+	public int size() {
+		return symbols.length();
+	}
+
+	/**
+	 * @param symbol A prefix symbol, eg '@'.
+	 * @return Its bit, or 0 if it isn't a prefix symbol.
+	 */
+	public int bitForSymbol(char symbol) {
+		int index = symbols.indexOf(symbol);
+		return index == -1 ? 0 : 1 << index;
+	}
+
+	/**
+	 * @param mode A mode letter, eg 'o'.
+	 * @return Its bit, or 0 if it isn't a prefix mode.
+	 */
+	public int bitForMode(char mode) {
+		int index = modes.indexOf(mode);
+		return index == -1 ? 0 : 1 << index;
+	}
+
+	/**
+	 * Gets the rank of a member for sorting: 0 for the highest prefix, and
+	 * size() for members with no prefix.
+	 *
+	 * @param bits The member's modes.
+	 * @return The rank.
+	 */
+	public int getRank(int bits) {
+		return bits == 0 ? symbols.length() : Integer.numberOfTrailingZeros(bits);
+	}
+
+	/**
+	 * @param bits The member's modes.
+	 * @return The highest prefix symbol, or "" if there isn't one.
+	 */
+	public String getSymbol(int bits) {
+		int rank = getRank(bits);
+		return rank < symbols.length() ? symbols.substring(rank, rank + 1) : "";
+	}
+
+	/**
+	 * Reads the prefix symbols at the start of a nick in a NAMES reply
+	 * ("@+nick" with multi-prefix).
+	 *
+	 * @param source The string holding the nick.
+	 * @param start  Where the nick starts.
+	 * @param end    Where the nick ends.
+	 * @return The modes.
+	 */
+	public int parseSymbols(String source, int start, int end) {
+		int bits = 0;
+		for (int i = start; i < end; i++) {
+			int bit = bitForSymbol(source.charAt(i));
+			if (bit == 0) {
+				break;
+			}
+			bits |= bit;
+		}
+		return bits;
+	}
+
+	/**
+	 * @param source The string holding the nick.
+	 * @param start  Where the nick starts.
+	 * @param end    Where the nick ends.
+	 * @return How many prefix symbols the nick starts with.
+	 */
+	public int countSymbols(String source, int start, int end) {
+		int i = start;
+		while (i < end && bitForSymbol(source.charAt(i)) != 0) {
+			i++;
+		}
+		return i - start;
+	}
+}
@@ -0,0 +1,177 @@
+package irc;
+
+/**
+ * A reference counted pool of strings, used to share the idents and hosts
+ * that many users have in common (cloaks, the same ISP, webchat gateways).
+ *
+ * acquire() returns the pool's copy of a string, adding it if needed, and
+ * counts a reference; release() gives one back and drops the string once
+ * nobody uses it. acquire() can read straight out of a line, so a string
+ * that is already pooled is found without creating a substring.
+ *
+ * Strings are kept in an open addressing table, hashed the same way as
+ * String.hashCode().
+ */
+public class StringPool {
+	private String[] strings = new String[64];
+	private int[] counts = new int[64];
+	private int size = 0;
+
+	/**
+	 * Gets the pooled copy of part of a string.
+	 *
+	 * @param src   The string, usually a line from the server.
+	 * @param start Where the part starts.
+	 * @param end   Where the part ends.
+	 * @return The pooled string.
+	 */
+	public synchronized String acquire(CharSequence src, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + src.charAt(i);
+		}
+
+		int mask = strings.length - 1;
+		int i = spread(hash) & mask;
+		String string;
+		while ((string = strings[i]) != null) {
+			if (regionEquals(string, src, start, end)) {
+				counts[i]++;
+				return string;
+			}
+			i = (i + 1) & mask;
+		}
+
+		string = src.subSequence(start, end).toString();
+		insert(i, string);
+		return string;
+	}
+
+	/**
+	 * Gets the pooled copy of a string.
+	 *
+	 * @param value The string.
+	 * @return The pooled string, or null if value is null.
+	 */
+	public synchronized String acquire(String value) {
+		if (value == null) {
+			return null;
+		}
+
+		int mask = strings.length - 1;
+		int i = spread(value.hashCode()) & mask;
+		String string;
+		while ((string = strings[i]) != null) {
+			if (string.equals(value)) {
+				counts[i]++;
+				return string;
+			}
+			i = (i + 1) & mask;
+		}
+
+		insert(i, value);
+		return value;
+	}
+
+	/**
+	 * Gives back a string from acquire(). Does nothing for null.
+	 *
+	 * @param value The pooled string.
+	 */
+	public synchronized void release(String value) {
+		if (value == null) {
+			return;
+		}
+
+		int mask = strings.length - 1;
+		int i = spread(value.hashCode()) & mask;
+		String string;
+		while ((string = strings[i]) != null) {
+			if (string.equals(value)) {
+				if (--counts[i] == 0) {
+					delete(i);
+				}
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * @return The number of different strings in the pool.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	private void insert(int i, String string) {
+		strings[i] = string;
+		counts[i] = 1;
+
+		if (++size * 4 > strings.length * 3) {
+			resize(strings.length * 2);
+		}
+	}
+
+	/**
+	 * Empties a slot, moving later entries of the same run back so that
+	 * lookups don't stop early at the gap.
+	 */
+	private void delete(int i) {
+		int mask = strings.length - 1;
+		strings[i] = null;
+		size--;
+
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (strings[j] == null) {
+				return;
+			}
+
+			// Move it back unless its home slot is between the gap and it
+			int home = spread(strings[j].hashCode()) & mask;
+			if (((j - home) & mask) >= ((j - i) & mask)) {
+				strings[i] = strings[j];
+				counts[i] = counts[j];
+				strings[j] = null;
+				i = j;
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		String[] oldStrings = strings;
+		int[] oldCounts = counts;
+		strings = new String[capacity];
+		counts = new int[capacity];
+
+		int mask = capacity - 1;
+		for (int i = 0; i < oldStrings.length; i++) {
+			if (oldStrings[i] != null) {
+				int j = spread(oldStrings[i].hashCode()) & mask;
+				while (strings[j] != null) {
+					j = (j + 1) & mask;
+				}
+				strings[j] = oldStrings[i];
+				counts[j] = oldCounts[i];
+			}
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean regionEquals(String string, CharSequence src, int start, int end) {
+		if (string.length() != end - start) {
+			return false;
+		}
+		for (int i = 0; i < string.length(); i++) {
+			if (string.charAt(i) != src.charAt(start + i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
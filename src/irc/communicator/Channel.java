@@ -1,18 +1,19 @@
 package irc.communicator;
 
 import irc.Client;
-import java.util.ArrayList;
+
+import java.util.List;
 
 /**
  * Class to represent channels.
  */
 public class Channel extends Communicator {
-	public String topic;
+	public volatile String topic;
 	public String name;
-	public ArrayList<User> users = new ArrayList<User>();
-	public ArrayList<String> nickList = new ArrayList<String>(); // Includes @ and +
+	public volatile Roster members = new Roster();
+	public final ChannelModes modes = new ChannelModes();
 
-	public boolean joined = false;
+	public volatile boolean joined = false;
 
 	public Channel(Client client) {
 		super(client);
@@ -25,4 +26,28 @@ public class Channel extends Communicator {
 	public String getName() {
 		return name;
 	}
+
+	/**
+	 * Checks whether a user would be banned from joining, going by the ban
+	 * and exception lists we have seen. Only the masks that could match the
+	 * user are checked. The ban list is only asked for on join if
+	 * Client.setTrackChannelModes() is on.
+	 *
+	 * @param user The user.
+	 * @return Whether a ban matches the user and no exception does.
+	 */
+	public boolean isBanned(User user) {
+		String excepts = client.getServerInfo("EXCEPTS");
+		char except = excepts == null || excepts.length() == 0 ? 'e' : excepts.charAt(0);
+		return modes.getList('b').matches(user, 1) && !modes.getList(except).matches(user, 1);
+	}
+
+	/**
+	 * Builds the list of nicks in the channel, with @ and +.
+	 *
+	 * @return A new, unsorted list of nicks.
+	 */
+	public List<String> getNickList() {
+		return members.getPrefixedNicks(client.getPrefixes());
+	}
 }
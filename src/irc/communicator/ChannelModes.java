@@ -0,0 +1,147 @@
+package irc.communicator;
+
+import irc.CaseMapping;
+import irc.ChanModes;
+import irc.Mask;
+import irc.MaskIndex;
+import irc.PersistentMap;
+
+import java.util.Map;
+
+/**
+ * A channel's modes: the flags as a bitset (see ChanModes), the parameters
+ * of modes such as the key and limit, and the ban, exception and invite
+ * lists as MaskIndexes, so checking a user against hundreds of bans only
+ * looks at the bans that could match.
+ *
+ * Changes swap in new values, so everything can be read from any thread
+ * while the protocol thread changes the modes.
+ */
+public class ChannelModes {
+	private volatile long flags = 0;
+	private volatile PersistentMap<Character, String> params = PersistentMap.empty();
+	private volatile PersistentMap<Character, MaskIndex> lists = PersistentMap.empty();
+
+	/**
+	 * @return The flags, as ChanModes bits.
+	 */
+	public long getFlags() {
+		return flags;
+	}
+
+	/**
+	 * @param mode     A mode letter, eg 'n'.
+	 * @param chanModes The server's channel modes.
+	 * @return Whether the mode is set.
+	 */
+	public boolean isSet(char mode, ChanModes chanModes) {
+		long bit = chanModes.bitForMode(mode);
+		return bit != 0 && (flags & bit) != 0;
+	}
+
+	/**
+	 * @param mode A mode letter, eg 'k'.
+	 * @return Its parameter, or null if it isn't set or has none.
+	 */
+	public String getParam(char mode) {
+		return params.get(mode);
+	}
+
+	/**
+	 * @param mode A list mode letter, eg 'b'.
+	 * @return The list; empty if we haven't seen it.
+	 */
+	public MaskIndex getList(char mode) {
+		MaskIndex list = lists.get(mode);
+		return list == null ? MaskIndex.EMPTY : list;
+	}
+
+	/**
+	 * Sets or unsets a mode that isn't a list mode.
+	 *
+	 * @param bit   The mode's bit; 0 for modes we don't know.
+	 * @param mode  The mode letter.
+	 * @param set   Whether it's being set.
+	 * @param param Its parameter, or null.
+	 */
+	public synchronized void set(long bit, char mode, boolean set, String param) {
+		flags = set ? flags | bit : flags & ~bit;
+		params = set && param != null ? params.with(mode, param) : params.without(mode);
+	}
+
+	/**
+	 * Adds a mask to a list, or removes one.
+	 *
+	 * @param mode        The list mode letter, eg 'b'.
+	 * @param mask        The mask.
+	 * @param add         Whether it's being added.
+	 * @param caseMapping How the server compares nicks.
+	 */
+	public synchronized void setListEntry(char mode, String mask, boolean add, CaseMapping caseMapping) {
+		MaskIndex list = lists.get(mode);
+		if (list == null) {
+			list = MaskIndex.empty(caseMapping);
+		}
+		list = add ? list.with(new Mask(mask), 1) : list.without(new Mask(mask));
+		lists = lists.with(mode, list);
+	}
+
+	/**
+	 * Replaces a whole list, eg after a 368 end of ban list.
+	 *
+	 * @param mode The list mode letter, eg 'b'.
+	 * @param list The list.
+	 */
+	public synchronized void setList(char mode, MaskIndex list) {
+		lists = lists.with(mode, list);
+	}
+
+	/**
+	 * Re-indexes the lists when the server tells us its CASEMAPPING, as they
+	 * were built with the case mapping we had at the time.
+	 *
+	 * @param caseMapping How the server compares nicks.
+	 */
+	public synchronized void setCaseMapping(CaseMapping caseMapping) {
+		PersistentMap<Character, MaskIndex> lists = this.lists;
+		for (Map.Entry<Character, MaskIndex> entry : lists.entrySet()) {
+			lists = lists.with(entry.getKey(), entry.getValue().withCaseMapping(caseMapping));
+		}
+		this.lists = lists;
+	}
+
+	/**
+	 * Unsets every flag and parameter, eg before a 324 reply. The lists are
+	 * kept.
+	 */
+	public synchronized void clear() {
+		flags = 0;
+		params = PersistentMap.empty();
+	}
+
+	/**
+	 * Builds the mode string, eg "+ntl 50".
+	 *
+	 * @param chanModes The server's channel modes.
+	 * @return The mode string, or "" if nothing is set.
+	 */
+	public String toString(ChanModes chanModes) {
+		long flags = this.flags;
+		PersistentMap<Character, String> params = this.params;
+		if (flags == 0) {
+			return "";
+		}
+
+		StringBuilder letters = new StringBuilder("+");
+		StringBuilder args = new StringBuilder();
+		for (long bits = flags; bits != 0; bits &= bits - 1) {
+			char mode = chanModes.modeForBit(Long.lowestOneBit(bits));
+			letters.append(mode);
+			String param = params.get(mode);
+			if (param != null) {
+				args.append(' ').append(param);
+			}
+		}
+		return letters.append(args).toString();
+	}
+}
@@ -0,0 +1,117 @@
+package irc.communicator;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The channels a user is in, as a plain array exactly as long as the number
+ * of channels. Most users share only one or two channels with us, so this
+ * is far smaller than a HashSet or a default sized ArrayList.
+ *
+ * Adding and removing swap in a new array, so the set can be iterated from
+ * any thread while the protocol thread changes it.
+ */
+public class ChannelSet implements Iterable<Channel> {
+	private static final Channel[] EMPTY = new Channel[0];
+
+	private volatile Channel[] channels = EMPTY;
+
+	/**
+	 * @param channel The channel.
+	 * @return Whether it was added (false if it was already there).
+	 */
+	public synchronized boolean add(Channel channel) {
+		Channel[] old = channels;
+		if (indexOf(old, channel) != -1) {
+			return false;
+		}
+
+		Channel[] updated = new Channel[old.length + 1];
+		System.arraycopy(old, 0, updated, 0, old.length);
+		updated[old.length] = channel;
+		channels = updated;
+		return true;
+	}
+
+	/**
+	 * @param channel The channel.
+	 * @return Whether it was removed (false if it wasn't there).
+	 */
+	public synchronized boolean remove(Channel channel) {
+		Channel[] old = channels;
+		int index = indexOf(old, channel);
+		if (index == -1) {
+			return false;
+		}
+
+		if (old.length == 1) {
+			channels = EMPTY;
+		} else {
+			Channel[] updated = new Channel[old.length - 1];
+			System.arraycopy(old, 0, updated, 0, index);
+			System.arraycopy(old, index + 1, updated, index, old.length - index - 1);
+			channels = updated;
+		}
+		return true;
+	}
+
+	/**
+	 * @param channel The channel.
+	 * @return Whether the user is in it.
+	 */
+	public boolean contains(Channel channel) {
+		return indexOf(channels, channel) != -1;
+	}
+
+	/**
+	 * @return The number of channels.
+	 */
+	public int size() {
+		return channels.length;
+	}
+
+	/**
+	 * @return Whether the user is in no channels we know of.
+	 */
+	public boolean isEmpty() {
+		return channels.length == 0;
+	}
+
+	/**
+	 * Iterates over the channels as they were when this was called.
+	 */
+	@Override
+	public Iterator<Channel> iterator() {
+		final Channel[] snapshot = channels;
+		return new Iterator<Channel>() {
+			private int index = 0;
+
+			@Override
+			public boolean hasNext() {
+				return index < snapshot.length;
+			}
+
+			@Override
+			public Channel next() {
+				if (index == snapshot.length) {
+					throw new NoSuchElementException();
+				}
+				return snapshot[index++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private static int indexOf(Channel[] channels, Channel channel) {
+		for (int i = 0; i < channels.length; i++) {
+			if (channels[i] == channel) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
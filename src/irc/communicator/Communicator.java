@@ -8,7 +8,7 @@ import irc.Client;
  */
 public abstract class Communicator {
 
-	private Client client;
+	protected Client client;
 
 	public Communicator(Client client) {
 		this.client = client;
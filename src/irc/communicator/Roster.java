@@ -0,0 +1,89 @@
+package irc.communicator;
+
+import irc.PersistentMap;
+import irc.Prefixes;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The members of a channel, each with their prefix modes (op, voice...) as
+ * a bitset; see Prefixes.
+ *
+ * Members are keyed by their User object, so adding, removing and renaming
+ * are all constant time - a nick change doesn't touch the roster at all.
+ *
+ * Changes swap in a new PersistentMap, so reading and iterating are safe from
+ * any thread while the protocol thread changes the roster; an iterator sees
+ * the members as they were when it was created.
+ */
+public class Roster implements Iterable<User> {
+	// Small Integers are cached, so this doesn't allocate per member
+	private volatile PersistentMap<User, Integer> members = PersistentMap.empty();
+
+	/**
+	 * Adds a member, or updates their modes if they're already a member.
+	 *
+	 * @param user  The user.
+	 * @param modes The user's prefix modes.
+	 */
+	public synchronized void add(User user, int modes) {
+		members = members.with(user, modes);
+	}
+
+	/**
+	 * @param user The user.
+	 * @return Whether the user was a member.
+	 */
+	public synchronized boolean remove(User user) {
+		PersistentMap<User, Integer> before = members;
+		members = before.without(user);
+		return members != before;
+	}
+
+	/**
+	 * @param user The user.
+	 * @return Whether the user is a member.
+	 */
+	public boolean contains(User user) {
+		return members.containsKey(user);
+	}
+
+	/**
+	 * @param user The user.
+	 * @return The user's prefix modes, or -1 if they aren't a member.
+	 */
+	public int getModes(User user) {
+		Integer modes = members.get(user);
+		return modes == null ? -1 : modes;
+	}
+
+	/**
+	 * @return The number of members.
+	 */
+	public int size() {
+		return members.size();
+	}
+
+	@Override
+	public Iterator<User> iterator() {
+		return members.keySet().iterator();
+	}
+
+	/**
+	 * Builds the list of nicks with their highest prefix ("@nick", "+nick").
+	 *
+	 * @param prefixes The server's prefixes.
+	 * @return A new, unsorted list.
+	 */
+	public List<String> getPrefixedNicks(Prefixes prefixes) {
+		PersistentMap<User, Integer> members = this.members;
+		ArrayList<String> nicks = new ArrayList<String>(members.size());
+		for (Map.Entry<User, Integer> member : members.entrySet()) {
+			nicks.add(prefixes.getSymbol(member.getValue()) + member.getKey().nick);
+		}
+		return nicks;
+	}
+}
@@ -1,6 +1,7 @@
 package irc.events;
 
 import irc.Client;
+import irc.Highlights;
 import irc.communicator.User;
 
 /**
@@ -11,6 +12,11 @@ public class ActionEvent extends IRCEvent {
 	public String destination;
 	public User user;
 
+	/**
+	 * Highlight words found in the text, for received messages.
+	 */
+	public Highlights highlights = Highlights.NONE;
+
 	public ActionEvent(Client client) {
 		super(client);
 	}
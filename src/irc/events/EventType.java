@@ -0,0 +1,177 @@
+package irc.events;
+
+import irc.EventAdapter;
+import irc.EventListener;
+import irc.ModeListener;
+
+import java.util.HashMap;
+
+/**
+ * The events that can be fired, one per EventListener method, plus
+ * CHANNEL_MODE_CHANGED, which only reaches listeners that also implement
+ * ModeListener.
+ *
+ * Each type knows how to call its own listener method directly, so firing an
+ * event is a plain interface call rather than a reflective lookup.
+ */
+public enum EventType {
+	ACTION_RECEIVED("actionReceived", ActionEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.actionReceived((ActionEvent) event);
+		}
+	},
+	ACTION_SENT("actionSent", ActionEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.actionSent((ActionEvent) event);
+		}
+	},
+	CHANNEL_JOINED("channelJoined", JoinedEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.channelJoined((JoinedEvent) event);
+		}
+	},
+	CHANNEL_PARTED("channelParted", PartedEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.channelParted((PartedEvent) event);
+		}
+	},
+	CHANNEL_MODE_CHANGED("channelModeChanged", ModeEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			if (listener instanceof ModeListener) {
+				((ModeListener) listener).channelModeChanged((ModeEvent) event);
+			}
+		}
+	},
+	CHANNEL_SWITCHED("channelSwitched", ChannelSwitchedEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.channelSwitched((ChannelSwitchedEvent) event);
+		}
+	},
+	CONNECTED("connected", null) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.connected();
+		}
+	},
+	DISCONNECTED("disconnected", null) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.disconnected();
+		}
+	},
+	LINE_RECEIVED("lineReceived", RawEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.lineReceived((RawEvent) event);
+		}
+	},
+	LINE_SENT("lineSent", RawEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.lineSent((RawEvent) event);
+		}
+	},
+	MESSAGE_RECEIVED("messageReceived", MessageEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.messageReceived((MessageEvent) event);
+		}
+	},
+	MESSAGE_SEND("messageSend", MessageEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.messageSend((MessageEvent) event);
+		}
+	},
+	NICK_CHANGED("nickChanged", NickChangedEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.nickChanged((NickChangedEvent) event);
+		}
+	},
+	QUERY_ACTION_RECEIVED("queryActionReceived", ActionEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.queryActionReceived((ActionEvent) event);
+		}
+	},
+	QUERY_RECEIVED("queryReceived", MessageEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.queryReceived((MessageEvent) event);
+		}
+	},
+	USER_QUIT("userQuit", QuitEvent.class) {
+		@Override
+		void dispatch(EventListener listener, IRCEvent event) {
+			listener.userQuit((QuitEvent) event);
+		}
+	};
+
+	private static final HashMap<String, EventType> byName = new HashMap<String, EventType>();
+
+	static {
+		for (EventType type : values()) {
+			byName.put(type.listenerName, type);
+		}
+	}
+
+	private final String listenerName;
+	private final Class<? extends IRCEvent> eventClass;
+
+	EventType(String listenerName, Class<? extends IRCEvent> eventClass) {
+		this.listenerName = listenerName;
+		this.eventClass = eventClass;
+	}
+
+	/**
+	 * @return The name of the EventListener method, eg "messageReceived".
+	 */
+	public String getListenerName() {
+		return listenerName;
+	}
+
+	/**
+	 * Checks whether a listener actually wants this event: listeners that
+	 * extend EventAdapter and don't override the method don't.
+	 *
+	 * @param listener The listener to check.
+	 * @return Whether the listener's class implements the method itself.
+	 */
+	public boolean isSubscribed(EventListener listener) {
+		if (this == CHANNEL_MODE_CHANGED && !(listener instanceof ModeListener)) {
+			return false;
+		}
+
+		try {
+			Class<?>[] parameters = eventClass == null ? new Class<?>[0] : new Class<?>[] { eventClass };
+			return listener.getClass().getMethod(listenerName, parameters).getDeclaringClass() != EventAdapter.class;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Calls the listener method for this type.
+	 *
+	 * @param listener The listener to call.
+	 * @param event    The event object, or null for events without one.
+	 */
+	abstract void dispatch(EventListener listener, IRCEvent event);
+
+	/**
+	 * Looks up an event type by its listener method name.
+	 *
+	 * @param listenerName The method name, eg "messageReceived".
+	 * @return The type, or null if there isn't one.
+	 */
+	public static EventType fromListenerName(String listenerName) {
+		return byName.get(listenerName);
+	}
+}
@@ -3,41 +3,128 @@ package irc.events;
 import irc.EventListener;
 
 import java.lang.reflect.Method;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * A simple events library written for callumacrae/JavaIRCClient
  *
+ * Listeners are bound to the EventTypes they subscribe to when they are
+ * added, and each type keeps its own array of listeners. Use hasListeners()
+ * to skip building events that nobody would receive. Firing an event walks
+ * that array and calls the listener method directly; the arrays are
+ * replaced rather than modified, so firing never needs to lock or copy.
+ *
  * Author: Callum Macrae
  * Created: 14/11/2013 10:49
  */
 public class Events {
-	private List<EventListener> listeners = new ArrayList<EventListener>();
+	private static final EventListener[] NONE = new EventListener[0];
+
+	private volatile EventListener[] all = NONE;
+	private volatile EventListener[][] listeners = new EventListener[EventType.values().length][];
+
+	public Events() {
+		for (int i = 0; i < listeners.length; i++) {
+			listeners[i] = NONE;
+		}
+	}
 
 	/**
-	 * Adds an event listener.
+	 * Adds an event listener. It is subscribed to every event, unless it
+	 * extends EventAdapter, in which case it is only subscribed to the
+	 * events whose methods it overrides.
 	 *
 	 * @param listener The event listener.
 	 * @return Returns itself to allow method chaining.
 	 */
 	public Events addListener(EventListener listener) {
-		listeners.add(listener);
+		EventType[] types = EventType.values();
+		int count = 0;
+		for (EventType type : types) {
+			if (type.isSubscribed(listener)) {
+				types[count++] = type;
+			}
+		}
+
+		EventType[] subscribed = new EventType[count];
+		System.arraycopy(types, 0, subscribed, 0, count);
+		return addListener(listener, subscribed);
+	}
+
+	/**
+	 * Adds an event listener that is only called for the specified events.
+	 *
+	 * @param listener The event listener.
+	 * @param types    The events to subscribe it to.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public synchronized Events addListener(EventListener listener, EventType... types) {
+		all = append(all, listener);
+
+		EventListener[][] copy = listeners.clone();
+		for (EventType type : types) {
+			copy[type.ordinal()] = append(copy[type.ordinal()], listener);
+		}
+		listeners = copy;
+
+		return this;
+	}
+
+	/**
+	 * Checks whether firing an event would reach anyone.
+	 *
+	 * @param type The type of the event.
+	 * @return Whether any listener is subscribed to the event.
+	 */
+	public boolean hasListeners(EventType type) {
+		return listeners[type.ordinal()].length != 0;
+	}
+
+	/**
+	 * Fires an event with no IRCEvent object.
+	 *
+	 * @param type The type of the event to be fired.
+	 * @return Returns itself in order to allow method chaining.
+	 */
+	public Events fire(EventType type) {
+		return fire(type, null);
+	}
+
+	/**
+	 * Fires an event. Exceptions thrown by a listener are printed and don't
+	 * stop the other listeners from being called.
+	 *
+	 * @param type  The type of the event to be fired.
+	 * @param event An object extended from IRCEvent.
+	 * @return Returns itself in order to allow method chaining.
+	 */
+	public Events fire(EventType type, IRCEvent event) {
+		for (EventListener listener : listeners[type.ordinal()]) {
+			try {
+				type.dispatch(listener, event);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
 
 		return this;
 	}
 
 	/**
-	 * Fires an event with no IRCEvent object..
+	 * Fires an event with no IRCEvent object. Kept for compatibility; use
+	 * fire(EventType) instead.
 	 *
 	 * @param listenerName The name of the event to be fired.
 	 * @return Returns itself in order to allow method chaining.
 	 */
 	public Events fire(String listenerName) {
-		for (EventListener listener : listeners) {
+		EventType type = EventType.fromListenerName(listenerName);
+		if (type != null) {
+			return fire(type);
+		}
+
+		for (EventListener listener : all) {
 			try {
-				Class<? extends EventListener> listenerClass = listener.getClass();
-				Method method = listenerClass.getMethod(listenerName);
+				Method method = listener.getClass().getMethod(listenerName);
 				method.invoke(listener);
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -48,18 +135,23 @@ public class Events {
 	}
 
 	/**
-	 * Fires an event.
+	 * Fires an event. Kept for compatibility; use fire(EventType, IRCEvent)
+	 * instead. Names that aren't an EventType are still looked up on the
+	 * listener by reflection.
 	 *
 	 * @param listenerName The name of the event to be fired.
 	 * @param event An object extended from IRCEvent.
 	 * @return Returns itself in order to allow method chaining.
 	 */
 	public Events fire(String listenerName, IRCEvent event) {
-		for (EventListener listener : listeners) {
+		EventType type = EventType.fromListenerName(listenerName);
+		if (type != null) {
+			return fire(type, event);
+		}
+
+		for (EventListener listener : all) {
 			try {
-				Class eventClass = event.getClass();
-				Class<? extends EventListener> listenerClass = listener.getClass();
-				Method method = listenerClass.getMethod(listenerName, eventClass);
+				Method method = listener.getClass().getMethod(listenerName, event.getClass());
 				method.invoke(listener, event);
 			} catch (Exception e) {
 				e.printStackTrace();
@@ -75,9 +167,35 @@ public class Events {
 	 * @param listener The event listener (must be the exact object).
 	 * @return Returns itself to allow method chaining.
 	 */
-	public Events removeListener(EventListener listener) {
-		listeners.remove(listener);
+	public synchronized Events removeListener(EventListener listener) {
+		all = remove(all, listener);
+
+		EventListener[][] copy = listeners.clone();
+		for (int i = 0; i < copy.length; i++) {
+			copy[i] = remove(copy[i], listener);
+		}
+		listeners = copy;
 
 		return this;
 	}
+
+	private static EventListener[] append(EventListener[] bound, EventListener listener) {
+		EventListener[] copy = new EventListener[bound.length + 1];
+		System.arraycopy(bound, 0, copy, 0, bound.length);
+		copy[bound.length] = listener;
+		return copy;
+	}
+
+	private static EventListener[] remove(EventListener[] bound, EventListener listener) {
+		for (int i = 0; i < bound.length; i++) {
+			if (bound[i] == listener) {
+				EventListener[] copy = new EventListener[bound.length - 1];
+				System.arraycopy(bound, 0, copy, 0, i);
+				System.arraycopy(bound, i + 1, copy, i, copy.length - i);
+				return copy;
+			}
+		}
+
+		return bound;
+	}
 }
@@ -11,23 +11,35 @@ import irc.communicator.Communicator;
  */
 public class IRCEvent {
 	public Client client;
-	public Communicator current;
+
+	private String destination;
+	private Communicator current;
+	private boolean currentResolved = false;
 
 	public IRCEvent(Client client) {
 		this.client = client;
-		
-		String destination = client.currentDestination;
+		this.destination = client.currentDestination;
+	}
 
-		if (destination == null) {
-			return;
-		}
+	/**
+	 * Gets the channel or user that was open when the event was created.
+	 * Looked up on first call, as most listeners never need it.
+	 *
+	 * @return The Communicator object, or null for the console.
+	 */
+	public Communicator getCurrent() {
+		if (!currentResolved) {
+			currentResolved = true;
 
-		if (destination.equalsIgnoreCase("console")) {
-			current = null;
-		} else if (destination.startsWith("#")) {
-			current = client.channels.get(destination);
-		} else {
-			current = client.users.get(destination);
+			if (destination == null || destination.equalsIgnoreCase("console")) {
+				current = null;
+			} else if (destination.startsWith("#")) {
+				current = client.getState().getChannel(destination);
+			} else {
+				current = client.getState().getUser(destination);
+			}
 		}
+
+		return current;
 	}
 }
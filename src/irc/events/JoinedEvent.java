@@ -11,6 +11,8 @@ public class JoinedEvent extends IRCEvent {
 	public Channel channel;
 	public User user;
 	public boolean us;
+	// From an ignored user: keep member lists right, but show nothing
+	public boolean ignored;
 
 	public JoinedEvent(Client client) {
 		super(client);
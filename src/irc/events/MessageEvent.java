@@ -1,6 +1,7 @@
 package irc.events;
 
 import irc.Client;
+import irc.Highlights;
 import irc.communicator.Channel;
 import irc.communicator.User;
 
@@ -14,6 +15,11 @@ public class MessageEvent extends IRCEvent {
 	public User user;
 	public boolean us = false;
 
+	/**
+	 * Highlight words found in the text, for received messages.
+	 */
+	public Highlights highlights = Highlights.NONE;
+
 	private boolean cancelSend = false;
 
 	public void cancelSend() {
@@ -0,0 +1,25 @@
+package irc.events;
+
+import irc.Client;
+import irc.communicator.Channel;
+import irc.communicator.User;
+
+import java.util.List;
+
+/**
+ * Used for the channelModeChanged event.
+ */
+public class ModeEvent extends IRCEvent {
+	public Channel channel;
+	// Null if a server set the modes
+	public User user;
+	public String setter;
+	// As sent, eg "+ov bob bob"
+	public String modes;
+	// Members whose prefix modes (op, voice...) changed
+	public List<User> members;
+
+	public ModeEvent(Client client) {
+		super(client);
+	}
+}
@@ -11,6 +11,8 @@ public class NickChangedEvent extends IRCEvent {
 	public String oldnick;
 	public String newnick;
 	public boolean us;
+	// From an ignored user: keep member lists right, but show nothing
+	public boolean ignored;
 
 	public NickChangedEvent(Client client) {
 		super(client);
@@ -12,6 +12,8 @@ public class PartedEvent extends IRCEvent {
 	public User user;
 	public String partMessage;
 	public boolean us;
+	// From an ignored user: keep member lists right, but show nothing
+	public boolean ignored;
 
 	public PartedEvent(Client client) {
 		super(client);
@@ -9,6 +9,8 @@ import irc.communicator.User;
 public class QuitEvent extends IRCEvent {
 	public User user;
 	public String quitMessage;
+	// From an ignored user: keep member lists right, but show nothing
+	public boolean ignored;
 
 	public QuitEvent(Client client) {
 		super(client);
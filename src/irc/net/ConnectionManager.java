@@ -0,0 +1,422 @@
+package irc.net;
+
+import irc.Client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many connections from a few threads, each driving a Selector.
+ *
+ * Usage:
+ *
+ *     ConnectionManager manager = new ConnectionManager(2);
+ *     Client client = new Client("irc.freenode.net");
+ *     manager.add(client);
+ *     client.setUserInfo(...).connect();
+ *
+ * Connections are spread over the selector threads round robin. Everything
+ * for one connection - connecting, reading, handling received lines and
+ * writing - happens on its selector thread, so handlers and listeners must
+ * not block. Each Client keeps its own channels, users and server info.
+ */
+public class ConnectionManager {
+	/**
+	 * How many reads one connection gets each time it's selected. Whatever
+	 * is left is read next time round, after the other ready connections.
+	 */
+	private static final int MAX_READS = 16;
+
+	private final SelectorLoop[] loops;
+	private final AtomicInteger next = new AtomicInteger();
+	private final AtomicInteger connections = new AtomicInteger();
+
+	/**
+	 * Creates a manager with one selector thread.
+	 *
+	 * @throws IOException If the selector can't be opened.
+	 */
+	public ConnectionManager() throws IOException {
+		this(1);
+	}
+
+	/**
+	 * Creates a manager with a number of selector threads. There is little
+	 * point in having more threads than cores.
+	 *
+	 * @param threads The number of selector threads.
+	 * @throws IOException If a selector can't be opened.
+	 */
+	public ConnectionManager(int threads) throws IOException {
+		loops = new SelectorLoop[threads];
+		for (int i = 0; i < threads; i++) {
+			loops[i] = new SelectorLoop(i);
+		}
+	}
+
+	/**
+	 * Makes a client use this manager. Call before client.connect().
+	 *
+	 * @param client The client.
+	 * @return Returns itself to allow method chaining.
+	 */
+	public ConnectionManager add(Client client) {
+		client.setTransport(createTransport());
+		return this;
+	}
+
+	/**
+	 * Creates a transport that runs on one of this manager's threads.
+	 *
+	 * @return The transport.
+	 */
+	public Transport createTransport() {
+		return new ManagedTransport(loops[(next.getAndIncrement() & Integer.MAX_VALUE) % loops.length]);
+	}
+
+	/**
+	 * @return The number of open connections.
+	 */
+	public int getConnectionCount() {
+		return connections.get();
+	}
+
+	/**
+	 * Closes every connection and stops the selector threads.
+	 */
+	public void shutdown() {
+		for (SelectorLoop loop : loops) {
+			loop.shutdown();
+		}
+	}
+
+	/**
+	 * One selector and the thread driving it. Other threads talk to it by
+	 * queueing tasks and waking the selector up.
+	 */
+	private class SelectorLoop implements Runnable {
+		private final Selector selector;
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private volatile boolean running = true;
+
+		// Transports held back by flood control; only used on the loop thread
+		private final ArrayList<ManagedTransport> delayed = new ArrayList<ManagedTransport>();
+
+		SelectorLoop(int index) throws IOException {
+			selector = Selector.open();
+
+			Thread thread = new Thread(this, "IRC selector " + index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		void shutdown() {
+			running = false;
+			selector.wakeup();
+		}
+
+		/**
+		 * Asks for a transport to be flushed again after a delay.
+		 */
+		void delay(ManagedTransport transport, long delay) {
+			transport.wakeAt = System.currentTimeMillis() + delay;
+			if (!delayed.contains(transport)) {
+				delayed.add(transport);
+			}
+		}
+
+		@Override
+		public void run() {
+			while (running) {
+				try {
+					long timeout = 0;
+					if (!delayed.isEmpty()) {
+						long next = Long.MAX_VALUE;
+						for (ManagedTransport transport : delayed) {
+							next = Math.min(next, transport.wakeAt);
+						}
+						timeout = Math.max(1, next - System.currentTimeMillis());
+					}
+
+					selector.select(timeout);
+				} catch (IOException e) {
+					e.printStackTrace();
+					break;
+				}
+
+				// Tasks close their own transport if they fail (see guard())
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+
+				if (!delayed.isEmpty()) {
+					long now = System.currentTimeMillis();
+					for (int i = delayed.size() - 1; i >= 0; i--) {
+						ManagedTransport transport = delayed.get(i);
+						if (transport.wakeAt <= now) {
+							delayed.remove(i);
+							try {
+								transport.flushNow();
+							} catch (RuntimeException e) {
+								transport.closed(e);
+							}
+						}
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+
+					ManagedTransport transport = (ManagedTransport) key.attachment();
+					if (key.isValid()) {
+						transport.ready(key);
+					}
+				}
+			}
+
+			for (SelectionKey key : selector.keys()) {
+				((ManagedTransport) key.attachment()).closed(null);
+			}
+
+			try {
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A non-blocking connection owned by a SelectorLoop. Apart from flush()
+	 * and close(), which hand work to the loop, everything runs on the
+	 * loop's thread.
+	 *
+	 * Received lines are handled on the loop thread too, so anything thrown
+	 * while handling them, or while writing, closes this connection only;
+	 * the loop carries on with the others.
+	 */
+	private class ManagedTransport implements Transport {
+		private final SelectorLoop loop;
+
+		private SocketChannel channel;
+		private SelectionKey key;
+		private SendQueue queue;
+		private WriteBatch batch;
+		private LineReader reader;
+		private LineListener listener;
+		private final List<String> lines = new ArrayList<String>();
+
+		long wakeAt;
+
+		private final AtomicBoolean flushScheduled = new AtomicBoolean();
+		private final Runnable flushTask = guard(new Runnable() {
+			@Override
+			public void run() {
+				flushScheduled.set(false);
+				flushNow();
+			}
+		});
+
+		private boolean closing = false;
+		private boolean closed = false;
+
+		ManagedTransport(SelectorLoop loop) {
+			this.loop = loop;
+		}
+
+		@Override
+		public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) throws IOException {
+			this.queue = queue;
+			this.batch = new WriteBatch(new LineEncoder(charset));
+			this.listener = listener;
+			this.reader = new LineReader(charset);
+
+			channel = SocketChannel.open();
+			final boolean connectedNow;
+			try {
+				channel.configureBlocking(false);
+				connectedNow = channel.connect(address);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			} catch (RuntimeException e) {
+				// eg an unresolved address
+				channel.close();
+				throw e;
+			}
+
+			loop.execute(guard(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// Opening again after a disconnect starts afresh
+						closing = false;
+						closed = false;
+						key = channel.register(loop.selector, connectedNow ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, ManagedTransport.this);
+						connections.incrementAndGet();
+						flushNow();
+					} catch (ClosedChannelException e) {
+						closed(e);
+					}
+				}
+			}));
+		}
+
+		@Override
+		public void flush() {
+			if (flushScheduled.compareAndSet(false, true)) {
+				loop.execute(flushTask);
+			}
+		}
+
+		@Override
+		public void close() {
+			queue.close();
+			loop.execute(guard(new Runnable() {
+				@Override
+				public void run() {
+					closing = true;
+					flushNow();
+				}
+			}));
+		}
+
+		/**
+		 * Wraps a task for the loop so that if it throws, this connection is
+		 * closed rather than the loop thread dying.
+		 */
+		private Runnable guard(final Runnable task) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						closed(e);
+					}
+				}
+			};
+		}
+
+		/**
+		 * Called by the loop when the channel is ready for something.
+		 */
+		void ready(SelectionKey key) {
+			try {
+				if (key.isConnectable()) {
+					channel.finishConnect();
+					key.interestOps(SelectionKey.OP_READ);
+					flushNow();
+				}
+
+				if (key.isValid() && key.isReadable()) {
+					read();
+				}
+
+				if (key.isValid() && key.isWritable()) {
+					flushNow();
+				}
+			} catch (IOException e) {
+				closed(e);
+			} catch (RuntimeException e) {
+				// Most likely a handler choking on a received line
+				closed(e);
+			}
+		}
+
+		private void read() throws IOException {
+			int read = 0;
+			for (int i = 0; i < MAX_READS && (read = reader.read(channel)) > 0; i++) {
+				reader.readLines(lines);
+			}
+
+			if (!lines.isEmpty()) {
+				listener.linesReceived(lines);
+				lines.clear();
+			}
+
+			if (read == -1) {
+				closed(null);
+			}
+		}
+
+		/**
+		 * Writes as much of the send queue as flood control and the socket
+		 * allow. Runs on the loop thread.
+		 */
+		void flushNow() {
+			if (closed || key == null || !key.isValid() || !channel.isConnected()) {
+				return;
+			}
+
+			try {
+				while (!batch.isEmpty() || batch.fill(null, queue)) {
+					if (!batch.write(channel)) {
+						// Socket buffer is full; wait for OP_WRITE
+						key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+						return;
+					}
+				}
+			} catch (IOException e) {
+				closed(e);
+				return;
+			}
+
+			key.interestOps(SelectionKey.OP_READ);
+
+			long delay = queue.getDelay();
+			if (delay > 0) {
+				loop.delay(this, delay);
+			} else if (closing) {
+				closed(null);
+			}
+		}
+
+		void closed(Exception cause) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+
+			queue.close();
+			batch.drop();
+
+			if (key != null) {
+				key.cancel();
+				connections.decrementAndGet();
+			}
+
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			// A failing listener mustn't take the loop down either
+			try {
+				listener.connectionClosed(cause);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package irc.net;
+
+/**
+ * Flood control settings, following the message timer most ircds use (RFC
+ * 1459, section 8.10): every line adds a penalty to a timer, and lines may
+ * only be sent while the timer is less than a window ahead of the clock.
+ *
+ * That works like a token bucket holding window worth of lines, refilled at
+ * one line per lineCost.
+ */
+public class FloodControl {
+	/**
+	 * 10 second window, 2 seconds per line: bursts of 5 lines, then one line
+	 * every 2 seconds.
+	 */
+	public static final FloodControl RFC1459 = new FloodControl(10000, 2000, 0);
+
+	/**
+	 * No flood control at all.
+	 */
+	public static final FloodControl NONE = new FloodControl(Long.MAX_VALUE / 2, 0, 0);
+
+	private final long window;
+	private final long lineCost;
+	private final long byteCost;
+
+	/**
+	 * @param window   How far ahead of the clock the timer may get, in ms.
+	 * @param lineCost The penalty per line, in ms.
+	 * @param byteCost The extra penalty per 100 bytes, in ms. Some ircds
+	 *                 (ircu, hybrid) charge more for long lines.
+	 */
+	public FloodControl(long window, long lineCost, long byteCost) {
+		this.window = window;
+		this.lineCost = lineCost;
+		this.byteCost = byteCost;
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param bytes The length of a line, including \r\n.
+	 * @return The penalty for sending it, in ms.
+	 */
+	public long getCost(int bytes) {
+		return lineCost + bytes * byteCost / 100;
+	}
+}
@@ -0,0 +1,164 @@
+package irc.net;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Encodes queued lines straight into byte buffers. UTF-8 is written by hand
+ * from the parts of the line; other charsets go through a CharsetEncoder.
+ * Either way no String is built for the line.
+ */
+public class LineEncoder {
+	private final CharsetEncoder encoder;
+	private final boolean utf8;
+
+	/**
+	 * @param charset The charset to encode lines in.
+	 */
+	public LineEncoder(Charset charset) {
+		utf8 = charset.name().equals("UTF-8");
+		encoder = charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Encodes a line, with \r\n, into a buffer. The buffer is cleared first
+	 * and flipped afterwards, ready to be written.
+	 *
+	 * @param line   The line.
+	 * @param buffer A buffer to reuse.
+	 * @return The buffer, or a bigger one if the line didn't fit.
+	 */
+	public ByteBuffer encode(QueuedLine line, ByteBuffer buffer) {
+		int length = utf8 ? line.getLength() : maxLength(line);
+		if (buffer.capacity() < length) {
+			buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length - 1) << 1);
+		}
+
+		buffer.clear();
+		put(buffer, line.getCommand());
+
+		if (line.getTarget() != null) {
+			buffer.put((byte) ' ');
+			put(buffer, line.getTarget());
+		}
+
+		if (line.getTrailing() != null) {
+			buffer.put((byte) ' ').put((byte) ':');
+			if (line.getCtcp() != null) {
+				buffer.put((byte) 1);
+				put(buffer, line.getCtcp());
+				buffer.put((byte) ' ');
+			}
+			put(buffer, line.getTrailing());
+			if (line.getCtcp() != null) {
+				buffer.put((byte) 1);
+			}
+		}
+
+		buffer.put((byte) '\r').put((byte) '\n');
+		buffer.flip();
+
+		return buffer;
+	}
+
+	private void put(ByteBuffer buffer, String string) {
+		if (utf8) {
+			putUtf8(buffer, string);
+		} else {
+			encoder.reset();
+			encoder.encode(CharBuffer.wrap(string), buffer, true);
+			encoder.flush(buffer);
+		}
+	}
+
+	private int maxLength(QueuedLine line) {
+		int chars = line.getCommand().length() + 8;
+		if (line.getTarget() != null) {
+			chars += line.getTarget().length();
+		}
+		if (line.getCtcp() != null) {
+			chars += line.getCtcp().length();
+		}
+		if (line.getTrailing() != null) {
+			chars += line.getTrailing().length();
+		}
+		return (int) Math.ceil(chars * encoder.maxBytesPerChar());
+	}
+
+	/**
+	 * Works out how long a line is in UTF-8, including \r\n, without
+	 * encoding it.
+	 *
+	 * @param line The line.
+	 * @return The length in bytes.
+	 */
+	static int utf8Length(QueuedLine line) {
+		int length = utf8Length(line.getCommand()) + 2;
+		if (line.getTarget() != null) {
+			length += 1 + utf8Length(line.getTarget());
+		}
+		if (line.getTrailing() != null) {
+			length += 2 + utf8Length(line.getTrailing());
+			if (line.getCtcp() != null) {
+				length += 3 + utf8Length(line.getCtcp());
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Works out how long a string is in UTF-8, without encoding it.
+	 *
+	 * @param string The string.
+	 * @return The length in bytes.
+	 */
+	public static int utf8Length(String string) {
+		int length = 0;
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				length++;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// Lone surrogate, written as '?'
+				length++;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	private static void putUtf8(ByteBuffer buffer, String string) {
+		for (int i = 0; i < string.length(); i++) {
+			char c = string.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < string.length() && Character.isLowSurrogate(string.charAt(i + 1))) {
+				int code = Character.toCodePoint(c, string.charAt(++i));
+				buffer.put((byte) (0xF0 | code >> 18));
+				buffer.put((byte) (0x80 | code >> 12 & 0x3F));
+				buffer.put((byte) (0x80 | code >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | code & 0x3F));
+			} else if (Character.isSurrogate(c)) {
+				buffer.put((byte) '?');
+			} else {
+				buffer.put((byte) (0xE0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+}
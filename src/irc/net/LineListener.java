@@ -0,0 +1,25 @@
+package irc.net;
+
+import java.util.List;
+
+/**
+ * Receives what a Transport reads from the server.
+ */
+public interface LineListener {
+	/**
+	 * Called with every complete line from one read, in order. Always called
+	 * from the same thread for a given connection.
+	 *
+	 * @param lines The lines, without line endings. Only valid until the
+	 *              method returns.
+	 */
+	public void linesReceived(List<String> lines);
+
+	/**
+	 * Called once when the connection is closed, by either end.
+	 *
+	 * @param cause The exception that closed it, or null if it was closed
+	 *              normally.
+	 */
+	public void connectionClosed(Exception cause);
+}
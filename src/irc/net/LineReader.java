@@ -0,0 +1,152 @@
+package irc.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.List;
+
+/**
+ * Reads lines from a channel into a direct buffer and splits them on LF (or
+ * CRLF) without copying.
+ *
+ * Only complete lines are decoded; a partial line stays in the buffer until
+ * the rest of it arrives. The buffer grows for long lines up to a maximum
+ * length, past which the rest of the line is dropped.
+ */
+public class LineReader {
+	private static final int INITIAL_CAPACITY = 8192;
+
+	private ByteBuffer buffer;
+	private CharBuffer chars;
+	private final CharsetDecoder decoder;
+	private final int maxLineLength;
+
+	// Set while dropping the end of a line that was too long
+	private boolean discarding = false;
+	// How much of the buffer is known to hold no LF, so a long line that
+	// arrives in many reads isn't searched from its start every time
+	private int scanned = 0;
+
+	/**
+	 * @param charset The charset the server sends lines in.
+	 */
+	public LineReader(Charset charset) {
+		this(charset, 64 * 1024);
+	}
+
+	/**
+	 * @param charset       The charset the server sends lines in.
+	 * @param maxLineLength The longest line (in bytes) that will be kept.
+	 */
+	public LineReader(Charset charset, int maxLineLength) {
+		this.maxLineLength = maxLineLength;
+
+		decoder = charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		buffer = ByteBuffer.allocateDirect(Math.min(INITIAL_CAPACITY, maxLineLength));
+		chars = CharBuffer.allocate(buffer.capacity());
+	}
+
+	/**
+	 * Reads whatever is available from the channel into the buffer. Blocks
+	 * if the channel is blocking and nothing is available.
+	 *
+	 * @param channel The channel to read from.
+	 * @return The number of bytes read, or -1 at end of stream.
+	 * @throws IOException If the read fails.
+	 */
+	public int read(ReadableByteChannel channel) throws IOException {
+		if (!buffer.hasRemaining()) {
+			makeRoom();
+		}
+
+		return channel.read(buffer);
+	}
+
+	/**
+	 * Decodes every complete line in the buffer and adds it to the list,
+	 * without the line ending. Empty lines are skipped.
+	 *
+	 * @param lines The list to add the lines to.
+	 * @return The number of lines added.
+	 */
+	public int readLines(List<String> lines) {
+		int count = 0;
+		int end = buffer.position();
+		int start = 0;
+
+		for (int i = scanned; i < end; i++) {
+			if (buffer.get(i) != '\n') {
+				continue;
+			}
+
+			if (discarding) {
+				discarding = false;
+			} else {
+				int lineEnd = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+				if (lineEnd > start) {
+					lines.add(decode(start, lineEnd));
+					count++;
+				}
+			}
+
+			start = i + 1;
+		}
+
+		// Move the partial line (if any) to the front of the buffer
+		buffer.limit(end);
+		buffer.position(start);
+		buffer.compact();
+		scanned = end - start;
+
+		return count;
+	}
+
+	/**
+	 * Makes room in a full buffer, which only happens when it holds part of
+	 * a single line longer than the buffer.
+	 */
+	private void makeRoom() {
+		if (buffer.capacity() < maxLineLength) {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(Math.min(buffer.capacity() * 2, maxLineLength));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		} else {
+			// Too long; throw away what we have and skip to the next line
+			buffer.clear();
+			scanned = 0;
+			discarding = true;
+		}
+	}
+
+	/**
+	 * Decodes part of the buffer. Leaves the buffer's limit at its capacity
+	 * so absolute gets keep working; the position is reset by readLines().
+	 */
+	private String decode(int start, int end) {
+		int length = end - start;
+		if (chars.capacity() < length) {
+			chars = CharBuffer.allocate(length);
+		}
+
+		buffer.limit(end);
+		buffer.position(start);
+
+		chars.clear();
+		decoder.reset();
+		decoder.decode(buffer, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+
+		buffer.limit(buffer.capacity());
+
+		return chars.toString();
+	}
+}
@@ -0,0 +1,22 @@
+package irc.net;
+
+/**
+ * How urgently a line needs to go out. Lines are always sent highest
+ * priority first, and in order within a priority.
+ */
+public enum Priority {
+	/**
+	 * Protocol replies like PONG, and QUIT. Not held back by flood control.
+	 */
+	URGENT,
+
+	/**
+	 * Things the user typed.
+	 */
+	NORMAL,
+
+	/**
+	 * Mass and automated traffic, such as rejoining channels.
+	 */
+	BULK
+}
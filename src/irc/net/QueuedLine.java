@@ -0,0 +1,168 @@
+package irc.net;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A line waiting in a SendQueue. Can be used to find out when (or whether)
+ * the line actually went onto the wire.
+ *
+ * Lines are kept in parts - command, target, CTCP verb and trailing text -
+ * and only encoded by the transport, straight into its write buffers, so
+ * sending a message doesn't build the line as a String first. Raw lines are
+ * just a command with no other parts.
+ */
+public class QueuedLine {
+	private final String command;
+	private final String target;
+	private final String ctcp;
+	private final String trailing;
+	private final Priority priority;
+	private final long queuedAt;
+
+	private int length = -1;
+
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean sent = false;
+	private volatile long sentAt;
+
+	QueuedLine(String command, String target, String ctcp, String trailing, Priority priority, long queuedAt) {
+		this.command = command;
+		this.target = target;
+		this.ctcp = ctcp;
+		this.trailing = trailing;
+		this.priority = priority;
+		this.queuedAt = queuedAt;
+	}
+
+	/**
+	 * Builds the line as a String. Only needed for logging; the transport
+	 * never calls this.
+	 *
+	 * @return The line, without \r\n.
+	 */
+	public String getLine() {
+		StringBuilder line = new StringBuilder(command);
+		if (target != null) {
+			line.append(' ').append(target);
+		}
+		if (trailing != null) {
+			line.append(" :");
+			if (ctcp != null) {
+				line.append('\u0001').append(ctcp).append(' ');
+			}
+			line.append(trailing);
+			if (ctcp != null) {
+				line.append('\u0001');
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * @return The command, or the whole line for raw lines.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * @return The target (channel, nick...), or null.
+	 */
+	public String getTarget() {
+		return target;
+	}
+
+	/**
+	 * @return The CTCP verb the trailing text is wrapped in, or null.
+	 */
+	public String getCtcp() {
+		return ctcp;
+	}
+
+	/**
+	 * @return The trailing parameter, or null.
+	 */
+	public String getTrailing() {
+		return trailing;
+	}
+
+	/**
+	 * @return The length of the line in UTF-8, including \r\n.
+	 */
+	public int getLength() {
+		if (length == -1) {
+			length = LineEncoder.utf8Length(this);
+		}
+		return length;
+	}
+
+	public Priority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * @return Whether the line has been sent or dropped.
+	 */
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	/**
+	 * @return Whether the line has been written to the socket.
+	 */
+	public boolean isSent() {
+		return sent;
+	}
+
+	/**
+	 * @return How long the line waited in the queue, in ms. If it hasn't
+	 *         gone yet, how long it has waited so far.
+	 */
+	public long getWait() {
+		return (sent ? sentAt : System.currentTimeMillis()) - queuedAt;
+	}
+
+	/**
+	 * Waits until the line has been sent or dropped.
+	 *
+	 * @return Whether the line was sent.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean await() throws InterruptedException {
+		done.await();
+		return sent;
+	}
+
+	/**
+	 * Waits until the line has been sent or dropped, or the timeout passes.
+	 *
+	 * @param timeout The longest time to wait, in ms.
+	 * @return Whether the line was sent.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		done.await(timeout, TimeUnit.MILLISECONDS);
+		return sent;
+	}
+
+	long getQueuedAt() {
+		return queuedAt;
+	}
+
+	/**
+	 * Called by the transport once the whole line has been written.
+	 */
+	void sent() {
+		sentAt = System.currentTimeMillis();
+		sent = true;
+		done.countDown();
+	}
+
+	/**
+	 * Called when the line will never be sent (the connection closed).
+	 */
+	void dropped() {
+		done.countDown();
+	}
+}
@@ -0,0 +1,232 @@
+package irc.net;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The outbound queue of a connection. Lines are taken highest priority
+ * first and held back by FloodControl, except URGENT lines which always go
+ * straight out (they are still charged for).
+ *
+ * Any thread can add lines; the transport of the connection takes them off.
+ */
+public class SendQueue {
+	// One per Priority, by ordinal
+	private final List<ArrayDeque<QueuedLine>> queues;
+	private int depth = 0;
+
+	private FloodControl floodControl = FloodControl.RFC1459;
+	private long timer = 0;
+
+	private boolean closed = false;
+	private volatile long lastWait = 0;
+
+	public SendQueue() {
+		int priorities = Priority.values().length;
+		queues = new ArrayList<ArrayDeque<QueuedLine>>(priorities);
+		for (int i = 0; i < priorities; i++) {
+			queues.add(new ArrayDeque<QueuedLine>());
+		}
+	}
+
+	/**
+	 * Adds a raw line to the queue.
+	 *
+	 * @param line     The line, without \r\n.
+	 * @param priority The priority.
+	 * @return The queued line, to wait on if needed. If the queue is closed
+	 *         the line is dropped straight away.
+	 */
+	public QueuedLine add(String line, Priority priority) {
+		return add(line, null, null, null, priority);
+	}
+
+	/**
+	 * Adds a line to the queue in parts, so it can be encoded without being
+	 * built as a String: "COMMAND target :\u0001CTCP trailing\u0001".
+	 *
+	 * @param command  The command, eg "PRIVMSG".
+	 * @param target   The target, or null.
+	 * @param ctcp     The CTCP verb to wrap the trailing text in, or null.
+	 * @param trailing The trailing parameter, or null.
+	 * @param priority The priority.
+	 * @return The queued line, to wait on if needed. If the queue is closed
+	 *         the line is dropped straight away.
+	 */
+	public synchronized QueuedLine add(String command, String target, String ctcp, String trailing, Priority priority) {
+		QueuedLine queued = new QueuedLine(command, target, ctcp, trailing, priority, System.currentTimeMillis());
+
+		if (closed) {
+			queued.dropped();
+		} else {
+			queues.get(priority.ordinal()).add(queued);
+			depth++;
+			notifyAll();
+		}
+
+		return queued;
+	}
+
+	/**
+	 * Takes the next line if flood control allows it to be sent now.
+	 *
+	 * @return The line, or null if there isn't one that can be sent yet.
+	 */
+	public synchronized QueuedLine poll() {
+		long now = System.currentTimeMillis();
+
+		for (ArrayDeque<QueuedLine> queue : queues) {
+			QueuedLine line = queue.peek();
+			if (line == null) {
+				continue;
+			}
+
+			if (line.getPriority() != Priority.URGENT && getDelay(now) > 0) {
+				return null;
+			}
+
+			queue.poll();
+			depth--;
+
+			timer = Math.max(timer, now) + floodControl.getCost(line.getLength());
+			lastWait = now - line.getQueuedAt();
+
+			return line;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Waits for the next line that can be sent. Used by transports with a
+	 * dedicated writer thread.
+	 *
+	 * @return The line, or null once the queue has been closed and has no
+	 *         urgent lines left.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public synchronized QueuedLine take() throws InterruptedException {
+		while (true) {
+			if (closed) {
+				return pollUrgent();
+			}
+
+			QueuedLine line = poll();
+			if (line != null) {
+				return line;
+			}
+
+			long delay = getDelay();
+			wait(delay > 0 ? delay : 0);
+		}
+	}
+
+	/**
+	 * @return How long until poll() will return a line, in ms: 0 if it will
+	 *         now, -1 if the queue is empty.
+	 */
+	public synchronized long getDelay() {
+		if (depth == 0) {
+			return -1;
+		}
+
+		if (!queues.get(Priority.URGENT.ordinal()).isEmpty()) {
+			return 0;
+		}
+
+		return getDelay(System.currentTimeMillis());
+	}
+
+	/**
+	 * Closes the queue: new lines are dropped, and once the urgent lines
+	 * have been taken everything left is dropped too.
+	 */
+	public synchronized void close() {
+		closed = true;
+
+		for (int i = 1; i < queues.size(); i++) {
+			QueuedLine line;
+			while ((line = queues.get(i).poll()) != null) {
+				depth--;
+				line.dropped();
+			}
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * @return Whether close() has been called. A closed queue can't be used
+	 *         again.
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Takes the next urgent line, ignoring flood control. Used while
+	 * closing.
+	 *
+	 * @return The line, or null if there are no urgent lines.
+	 */
+	public synchronized QueuedLine pollUrgent() {
+		QueuedLine line = queues.get(Priority.URGENT.ordinal()).poll();
+		if (line != null) {
+			depth--;
+		}
+		return line;
+	}
+
+	/**
+	 * Sets the flood control settings. Defaults to FloodControl.RFC1459.
+	 *
+	 * @param floodControl The settings.
+	 */
+	public synchronized void setFloodControl(FloodControl floodControl) {
+		this.floodControl = floodControl;
+		notifyAll();
+	}
+
+	/**
+	 * @return The number of lines waiting.
+	 */
+	public synchronized int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * @param priority A priority.
+	 * @return The number of lines of that priority waiting.
+	 */
+	public synchronized int getDepth(Priority priority) {
+		return queues.get(priority.ordinal()).size();
+	}
+
+	/**
+	 * @return How long the line that has been waiting longest has waited,
+	 *         in ms, or 0 if the queue is empty.
+	 */
+	public synchronized long getOldestWait() {
+		long oldest = Long.MAX_VALUE;
+		for (ArrayDeque<QueuedLine> queue : queues) {
+			QueuedLine line = queue.peek();
+			if (line != null) {
+				oldest = Math.min(oldest, line.getQueuedAt());
+			}
+		}
+
+		return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+	}
+
+	/**
+	 * @return How long the last line taken off the queue had waited, in ms.
+	 */
+	public long getLastWait() {
+		return lastWait;
+	}
+
+	private long getDelay(long now) {
+		return Math.max(0, timer - now - floodControl.getWindow() + 1);
+	}
+}
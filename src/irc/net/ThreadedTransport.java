@@ -0,0 +1,123 @@
+package irc.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The standalone transport: a blocking SocketChannel with its own reader
+ * thread, and a writer thread that is the only thing writing to it.
+ */
+public class ThreadedTransport implements Transport {
+	private SocketChannel channel;
+	private SendQueue queue;
+	private WriteBatch batch;
+	private LineListener listener;
+
+	private volatile boolean closed = false;
+
+	@Override
+	public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) throws IOException {
+		this.channel = SocketChannel.open(address);
+		// Opening again after a disconnect starts afresh
+		this.closed = false;
+		this.queue = queue;
+		this.batch = new WriteBatch(new LineEncoder(charset));
+		this.listener = listener;
+
+		final LineReader reader = new LineReader(charset);
+
+		// Check for messages in a thread because of the while loop
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				List<String> lines = new ArrayList<String>();
+				Exception cause = null;
+
+				try {
+					while (reader.read(channel) != -1) {
+						if (reader.readLines(lines) > 0) {
+							ThreadedTransport.this.listener.linesReceived(lines);
+							lines.clear();
+						}
+					}
+				} catch (IOException e) {
+					if (!closed) {
+						cause = e;
+					}
+				} catch (RuntimeException e) {
+					// Most likely a handler choking on a received line
+					cause = e;
+				}
+
+				closed(cause);
+			}
+		}, "IRC reader " + address).start();
+
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeLoop();
+			}
+		}, "IRC writer " + address).start();
+	}
+
+	@Override
+	public void flush() {
+		// The writer thread is woken up by the queue itself
+	}
+
+	@Override
+	public void close() {
+		// The writer sends what's urgent, then closes the channel
+		queue.close();
+	}
+
+	private void writeLoop() {
+		Exception cause = null;
+
+		try {
+			QueuedLine line;
+			while ((line = queue.take()) != null) {
+				// Send everything else that's ready along with it
+				batch.fill(line, queue);
+				while (!batch.write(channel)) {
+					// Blocking channel; loops only if the write was partial
+				}
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				cause = e;
+			}
+		} catch (InterruptedException e) {
+			cause = e;
+		} catch (RuntimeException e) {
+			cause = e;
+		}
+
+		closed(cause);
+	}
+
+	private void closed(Exception cause) {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+
+		queue.close();
+		batch.drop();
+
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		listener.connectionClosed(cause);
+	}
+}
@@ -0,0 +1,40 @@
+package irc.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+/**
+ * Moves lines between a Client and the server. The Client only does the
+ * protocol; how the socket is read and written is up to the transport.
+ *
+ * ThreadedTransport gives each connection its own reader and writer
+ * threads, while the transports made by ConnectionManager share a few
+ * selector threads between many connections.
+ */
+public interface Transport {
+	/**
+	 * Opens the connection and starts reading from it and writing the lines
+	 * in the send queue. Can be called again once the last connection has
+	 * closed, to reconnect.
+	 *
+	 * @param address  The server to connect to.
+	 * @param charset  The charset to read and write lines in.
+	 * @param queue    The queue of lines to send.
+	 * @param listener Where to send received lines.
+	 * @throws IOException If the connection can't be started.
+	 */
+	public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) throws IOException;
+
+	/**
+	 * Tells the transport that lines have been added to the send queue. Can
+	 * be called from any thread.
+	 */
+	public void flush();
+
+	/**
+	 * Closes the connection. Urgent lines already in the send queue are sent
+	 * first where possible; the rest are dropped.
+	 */
+	public void close();
+}
@@ -0,0 +1,92 @@
+package irc.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/**
+ * A batch of lines taken off a SendQueue, each encoded into its own reused
+ * buffer and written with a single gathering write. Used by the transports
+ * from their one writing thread.
+ */
+class WriteBatch {
+	private static final int MAX_LINES = 16;
+	private static final int BUFFER_SIZE = 512;
+
+	private final LineEncoder encoder;
+	private final ByteBuffer[] buffers = new ByteBuffer[MAX_LINES];
+	private final QueuedLine[] lines = new QueuedLine[MAX_LINES];
+	private int count = 0;
+	private int written = 0;
+
+	WriteBatch(LineEncoder encoder) {
+		this.encoder = encoder;
+		for (int i = 0; i < MAX_LINES; i++) {
+			buffers[i] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * @return Whether the batch has lines that haven't been fully written.
+	 */
+	boolean isEmpty() {
+		return written == count;
+	}
+
+	/**
+	 * Fills an empty batch with as many lines as the queue will give out.
+	 *
+	 * @param first A line already taken from the queue, or null.
+	 * @param queue The queue to take more lines from.
+	 * @return Whether the batch has any lines.
+	 */
+	boolean fill(QueuedLine first, SendQueue queue) {
+		count = 0;
+		written = 0;
+
+		QueuedLine line = first != null ? first : queue.poll();
+		while (line != null) {
+			lines[count] = line;
+			buffers[count] = encoder.encode(line, buffers[count]);
+			count++;
+
+			if (count == MAX_LINES) {
+				break;
+			}
+			line = queue.poll();
+		}
+
+		return count > 0;
+	}
+
+	/**
+	 * Writes as much of the batch as the channel takes. Lines are marked as
+	 * sent as soon as their last byte is written.
+	 *
+	 * @param channel The channel to write to.
+	 * @return Whether the whole batch has been written.
+	 * @throws IOException If the write fails.
+	 */
+	boolean write(GatheringByteChannel channel) throws IOException {
+		channel.write(buffers, written, count - written);
+
+		while (written < count && !buffers[written].hasRemaining()) {
+			lines[written].sent();
+			lines[written] = null;
+			written++;
+		}
+
+		return written == count;
+	}
+
+	/**
+	 * Drops whatever hasn't been written, eg when the connection closes.
+	 */
+	void drop() {
+		while (written < count) {
+			lines[written].dropped();
+			lines[written] = null;
+			written++;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+import irc.Prefixes;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NickListModelTest {
+	private final Prefixes prefixes = Prefixes.DEFAULT;
+	private final NickListModel model = new NickListModel();
+	private final List<String> events = new ArrayList<String>();
+
+	@Before
+	public void setUp() {
+		model.add("alice", 0, prefixes);
+		model.add("carol", 0, prefixes);
+		model.add("erin", 0, prefixes);
+
+		model.addListDataListener(new ListDataListener() {
+			@Override
+			public void intervalAdded(ListDataEvent e) {
+				events.add("added " + e.getIndex0());
+			}
+
+			@Override
+			public void intervalRemoved(ListDataEvent e) {
+				events.add("removed " + e.getIndex0());
+			}
+
+			@Override
+			public void contentsChanged(ListDataEvent e) {
+				events.add("changed " + e.getIndex0());
+			}
+		});
+	}
+
+	private String row(int index) {
+		return model.getElementAt(index).toString();
+	}
+
+	@Test
+	public void renameInPlaceChangesTheRow() {
+		model.rename("carol", "dave");
+
+		assertEquals("dave", row(1));
+		assertEquals(3, model.getSize());
+		assertEquals("[changed 1]", events.toString());
+	}
+
+	@Test
+	public void renameThatMovesRemovesThenAdds() {
+		model.rename("alice", "frank");
+
+		assertEquals("carol", row(0));
+		assertEquals("frank", row(2));
+		assertEquals("[removed 0, added 2]", events.toString());
+	}
+
+	@Test
+	public void modeChangeThatMovesRemovesThenAdds() {
+		model.add("erin", prefixes.bitForMode('o'), prefixes);
+
+		assertEquals("@erin", row(0));
+		assertEquals("[removed 2, added 0]", events.toString());
+	}
+
+	@Test
+	public void addingSomeoneNewOnlyAdds() {
+		model.add("bob", 0, prefixes);
+
+		assertEquals("bob", row(1));
+		assertEquals("[added 1]", events.toString());
+	}
+
+	@Test
+	public void modeChangeInPlaceChangesTheRow() {
+		model.add("alice", prefixes.bitForMode('o'), prefixes);
+		events.clear();
+
+		model.add("alice", prefixes.bitForMode('o') | prefixes.bitForMode('v'), prefixes);
+
+		assertEquals("@alice", row(0));
+		assertEquals("[changed 0]", events.toString());
+	}
+}
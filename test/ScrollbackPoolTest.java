@@ -0,0 +1,52 @@
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ScrollbackPoolTest {
+	@Rule
+	public TemporaryFolder dir = new TemporaryFolder();
+
+	private static ScrollbackLine line(String text) {
+		return new ScrollbackLine(ScrollbackLine.Kind.MESSAGE, "bob", null, text);
+	}
+
+	@Test
+	public void reopeningBeforeTheReleaseSharesTheLog() {
+		ScrollbackPool pool = new ScrollbackPool(100, 1000, dir.getRoot());
+		Scrollback first = pool.create("#chan");
+		first.add(line("one"));
+
+		// Rejoined before the part's release ran on the EDT
+		Scrollback second = pool.create("#chan");
+		assertSame(first, second);
+		pool.release(first);
+
+		second.add(line("two"));
+		assertEquals(2, second.getSize());
+		pool.release(second);
+
+		Scrollback reopened = pool.create("#chan");
+		assertEquals(2, reopened.getSize());
+		assertEquals("one", reopened.getLine(0).text);
+		assertEquals("two", reopened.getLine(1).text);
+		pool.release(reopened);
+	}
+
+	@Test
+	public void linesAfterCloseAreDropped() {
+		ScrollbackPool pool = new ScrollbackPool(100, 1000, dir.getRoot());
+		Scrollback window = pool.create("#chan");
+		window.add(line("kept"));
+		pool.release(window);
+		window.add(line("late"));
+		assertEquals(1, window.getSize());
+
+		Scrollback reopened = pool.create("#chan");
+		assertEquals(1, reopened.getSize());
+		reopened.add(line("new"));
+		assertEquals("new", reopened.getLine(1).text);
+		pool.release(reopened);
+	}
+}
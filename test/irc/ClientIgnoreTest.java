@@ -0,0 +1,111 @@
+package irc;
+
+import irc.communicator.Channel;
+import irc.communicator.User;
+import irc.events.JoinedEvent;
+import irc.events.NickChangedEvent;
+import irc.events.PartedEvent;
+import irc.events.QuitEvent;
+import irc.net.LineListener;
+import irc.net.SendQueue;
+import irc.net.Transport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Ignored joins, parts, quits and nick changes must still reach listeners,
+ * marked ignored, or their member lists drift from the client's.
+ */
+public class ClientIgnoreTest {
+	private Client client;
+	private LineListener server;
+	private final List<String> fired = new ArrayList<String>();
+
+	@Before
+	public void setUp() throws Exception {
+		client = new Client("localhost")
+				.setTransport(new Transport() {
+					@Override
+					public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) {
+						server = listener;
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+					}
+				})
+				.setUserInfo("Me", "me", "Me");
+		client.events.addListener(new EventAdapter() {
+			@Override
+			public void channelJoined(JoinedEvent event) {
+				fired.add("join " + event.user.nick + " " + event.ignored);
+			}
+
+			@Override
+			public void channelParted(PartedEvent event) {
+				fired.add("part " + event.user.nick + " " + event.ignored);
+			}
+
+			@Override
+			public void nickChanged(NickChangedEvent event) {
+				fired.add("nick " + event.oldnick + " " + event.ignored);
+			}
+
+			@Override
+			public void userQuit(QuitEvent event) {
+				fired.add("quit " + event.user.nick + " " + event.ignored);
+			}
+		});
+		client.ignore("*!*@spam.example", EnumSet.of(IgnoreType.JOIN, IgnoreType.PART, IgnoreType.QUIT, IgnoreType.NICK));
+		client.connect();
+		client.join("#chan");
+
+		receive(":srv 001 Me :Welcome", ":Me!me@host JOIN #chan", ":srv 353 Me = #chan :Me",
+				":srv 366 Me #chan :End of /NAMES list.");
+		fired.clear();
+	}
+
+	private void receive(String... lines) {
+		server.linesReceived(Arrays.asList(lines));
+	}
+
+	@Test
+	public void ignoredMembershipEventsStillFire() {
+		receive(":bot!b@spam.example JOIN #chan",
+				":friend!f@good.example JOIN #chan",
+				":bot!b@spam.example NICK robot",
+				":robot!b@spam.example PART #chan",
+				":friend!f@good.example QUIT :bye");
+
+		assertEquals(Arrays.asList("join bot true", "join friend false", "nick bot true", "part robot true",
+				"quit friend false"), fired);
+	}
+
+	@Test
+	public void ignoredUsersStayInTheRoster() {
+		receive(":bot!b@spam.example JOIN #chan", ":bot!b@spam.example NICK robot");
+
+		Channel channel = client.getState().getChannel("#chan");
+		User robot = client.getState().getUser("robot");
+		assertNotNull(robot);
+		assertTrue(channel.members.contains(robot));
+		assertNull(client.getState().getUser("bot"));
+		assertEquals(2, client.getIgnoredCount(IgnoreType.JOIN) + client.getIgnoredCount(IgnoreType.NICK));
+
+		receive(":robot!b@spam.example QUIT :gone");
+		assertFalse(channel.members.contains(robot));
+	}
+}
@@ -0,0 +1,66 @@
+package irc;
+
+import irc.communicator.Channel;
+import irc.communicator.User;
+import irc.net.LineListener;
+import irc.net.SendQueue;
+import irc.net.Transport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ClientModesTest {
+	private Client client;
+	private LineListener server;
+
+	@Before
+	public void setUp() throws Exception {
+		client = new Client("localhost")
+				.setTransport(new Transport() {
+					@Override
+					public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) {
+						server = listener;
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+					}
+				})
+				.setUserInfo("Me", "me", "Me");
+		client.connect();
+		client.join("#chan");
+		receive(":srv 001 Me :Welcome", ":Me!me@host JOIN #chan");
+	}
+
+	private void receive(String... lines) {
+		server.linesReceived(Arrays.asList(lines));
+	}
+
+	@Test
+	public void tracksBansFromMode() {
+		receive(":op!o@h MODE #chan +b bad!*@*");
+		assertEquals(1, client.getState().getChannel("#chan").modes.getList('b').size());
+	}
+
+	@Test
+	public void reindexesBansWhenTheCaseMappingChanges() {
+		receive(":srv 353 Me = #chan :@Me nick{a}", ":srv 366 Me #chan :End of /NAMES list.",
+				":op!o@h MODE #chan +b nick[a]!*@*");
+		Channel channel = client.getState().getChannel("#chan");
+		User user = client.getState().getUser("nick{a}");
+		assertTrue(channel.isBanned(user));
+
+		// Under ascii, [ and { are different characters
+		receive(":srv 005 Me CASEMAPPING=ascii :are supported by this server");
+		assertFalse(channel.isBanned(user));
+	}
+}
@@ -0,0 +1,70 @@
+package irc;
+
+import irc.communicator.Channel;
+import irc.net.LineListener;
+import irc.net.SendQueue;
+import irc.net.Transport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ClientNamesTest {
+	private Client client;
+	private LineListener server;
+
+	@Before
+	public void setUp() throws Exception {
+		client = new Client("localhost")
+				.setTransport(new Transport() {
+					@Override
+					public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) {
+						server = listener;
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+					}
+				})
+				.setUserInfo("Me", "me", "Me");
+		client.connect();
+		client.join("#chan");
+		receive(":srv 001 Me :Welcome", ":Me!me@host JOIN #chan");
+	}
+
+	private void receive(String... lines) {
+		server.linesReceived(Arrays.asList(lines));
+	}
+
+	@Test
+	public void buildsTheRosterOnEndOfNames() {
+		receive(":srv 353 Me = #chan :@Me +bob carol", ":srv 366 Me #chan :End of /NAMES list.");
+		assertEquals(3, client.getState().getChannel("#chan").members.size());
+	}
+
+	@Test
+	public void addsUsWhenTheServerLeftUsOut() {
+		receive(":srv 353 Me = #chan :bob", ":srv 366 Me #chan :End of /NAMES list.");
+		Channel channel = client.getState().getChannel("#chan");
+		assertEquals(2, channel.members.size());
+		assertTrue(channel.members.contains(client.getState().getUser("Me")));
+	}
+
+	@Test
+	public void ignoresRepliesMissingParameters() {
+		receive(":srv 353 Me = #chan :bob", ":srv 353 Me", ":srv 366 Me");
+		receive(":srv 366 Me #chan :End of /NAMES list.");
+		assertEquals(2, client.getState().getChannel("#chan").members.size());
+
+		receive(":bob!b@h NICK");
+		assertNotNull(client.getState().getUser("bob"));
+	}
+}
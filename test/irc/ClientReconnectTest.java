@@ -0,0 +1,109 @@
+package irc;
+
+import irc.net.FloodControl;
+import irc.net.LineListener;
+import irc.net.QueuedLine;
+import irc.net.SendQueue;
+import irc.net.Transport;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ClientReconnectTest {
+	private Client client;
+	private SendQueue queue;
+	private LineListener server;
+	private int opens = 0;
+	private int disconnects = 0;
+
+	@Before
+	public void setUp() {
+		client = new Client("localhost")
+				.setTransport(new Transport() {
+					@Override
+					public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) {
+						ClientReconnectTest.this.queue = queue;
+						server = listener;
+						opens++;
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+						queue.close();
+						server.connectionClosed(null);
+					}
+				})
+				.setFloodControl(FloodControl.NONE)
+				.setUserInfo("Me", "me", "Me");
+		client.events.addListener(new EventAdapter() {
+			@Override
+			public void disconnected() {
+				disconnects++;
+			}
+		});
+	}
+
+	/**
+	 * @return The commands waiting to be sent.
+	 */
+	private List<String> sent() {
+		List<String> commands = new ArrayList<String>();
+		QueuedLine line;
+		while ((line = queue.poll()) != null) {
+			commands.add(line.getCommand());
+		}
+		return commands;
+	}
+
+	@Test
+	public void connectsAgainAfterTheServerDropsUs() throws Exception {
+		client.connect();
+		assertTrue(sent().contains("NICK"));
+
+		server.connectionClosed(null);
+		assertEquals(1, disconnects);
+
+		client.connect();
+		assertEquals(2, opens);
+		List<String> commands = sent();
+		assertTrue(commands.toString(), commands.contains("USER"));
+		assertTrue(commands.toString(), commands.contains("NICK"));
+
+		client.join("#chan");
+		assertEquals("JOIN", sent().get(0));
+
+		server.connectionClosed(null);
+		assertEquals(2, disconnects);
+	}
+
+	@Test
+	public void connectsAgainAfterQuitting() throws Exception {
+		client.connect();
+		sent();
+		client.quit("bye");
+		assertEquals(1, disconnects);
+
+		client.connect();
+		assertTrue(sent().contains("NICK"));
+
+		client.quit("bye again");
+		assertEquals(2, disconnects);
+	}
+
+	@Test
+	public void keepsLinesQueuedBeforeTheFirstConnect() throws Exception {
+		client.join("#early");
+		client.connect();
+		assertTrue(sent().contains("JOIN"));
+	}
+}
@@ -0,0 +1,109 @@
+package irc;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FormattingTest {
+	private static final String B = "\u0002";
+	private static final String C = "\u0003";
+	private static final String O = "\u000F";
+	private static final String U = "\u001F";
+
+	/**
+	 * @return Each run as "start-end:fg,bg" plus "b" or "u" for bold and
+	 *         underline.
+	 */
+	private static String runs(Formatting formatting) {
+		StringBuilder runs = new StringBuilder();
+		for (int i = 0; i < formatting.getSpanCount(); i++) {
+			int style = formatting.getStyle(i);
+			if (i > 0) {
+				runs.append(' ');
+			}
+			runs.append(formatting.getStart(i)).append('-').append(formatting.getEnd(i)).append(':')
+					.append(Formatting.getForeground(style)).append(',').append(Formatting.getBackground(style));
+			if (Formatting.is(style, Formatting.BOLD)) {
+				runs.append('b');
+			}
+			if (Formatting.is(style, Formatting.UNDERLINE)) {
+				runs.append('u');
+			}
+		}
+		return runs.toString();
+	}
+
+	@Test
+	public void plainLinesAreLeftAlone() {
+		String line = "just some text";
+		Formatting formatting = Formatting.parse(line);
+		assertSame(line, formatting.getText());
+		assertTrue(formatting.isPlain());
+	}
+
+	@Test
+	public void colourOnItsOwnClearsTheColours() {
+		Formatting formatting = Formatting.parse(C + "4red" + C + "plain");
+		assertEquals("redplain", formatting.getText());
+		assertEquals("0-3:4,-1 3-8:-1,-1", runs(formatting));
+	}
+
+	@Test
+	public void colourOnItsOwnWithNothingToClearDoesNothing() {
+		Formatting formatting = Formatting.parse("a" + C + "b");
+		assertEquals("ab", formatting.getText());
+		assertTrue(formatting.isPlain());
+	}
+
+	@Test
+	public void oneDigitForeground() {
+		Formatting formatting = Formatting.parse(C + "5five");
+		assertEquals("five", formatting.getText());
+		assertEquals("0-4:5,-1", runs(formatting));
+	}
+
+	@Test
+	public void commaWithoutABackgroundIsText() {
+		Formatting formatting = Formatting.parse(C + "5,x");
+		assertEquals(",x", formatting.getText());
+		assertEquals("0-2:5,-1", runs(formatting));
+	}
+
+	@Test
+	public void foregroundAndBackground() {
+		Formatting formatting = Formatting.parse("a" + C + "04,12bc");
+		assertEquals("abc", formatting.getText());
+		assertEquals("1-3:4,12", runs(formatting));
+	}
+
+	@Test
+	public void ninetyNineIsTheDefaultColour() {
+		Formatting formatting = Formatting.parse(C + "99x");
+		assertEquals("x", formatting.getText());
+		assertTrue(formatting.isPlain());
+
+		formatting = Formatting.parse(C + "3,5a" + C + "99,5b");
+		assertEquals("0-1:3,5 1-2:-1,5", runs(formatting));
+	}
+
+	@Test
+	public void onlyTwoDigitsAreAColour() {
+		Formatting formatting = Formatting.parse(C + "123");
+		assertEquals("3", formatting.getText());
+		assertEquals("0-1:12,-1", runs(formatting));
+	}
+
+	@Test
+	public void flagsToggleAndResetClearsEverything() {
+		Formatting formatting = Formatting.parse(B + "bold" + U + "both" + B + "under" + O + "plain");
+		assertEquals("boldbothunderplain", formatting.getText());
+		assertEquals("0-4:-1,-1b 4-8:-1,-1bu 8-13:-1,-1u 13-18:-1,-1", runs(formatting));
+	}
+
+	@Test
+	public void codesThatCancelOutLeaveNoRuns() {
+		Formatting formatting = Formatting.parse(B + B + "text" + U);
+		assertEquals("text", formatting.getText());
+		assertTrue(formatting.isPlain());
+	}
+}
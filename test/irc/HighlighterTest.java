@@ -0,0 +1,95 @@
+package irc;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class HighlighterTest {
+	private static Highlighter keywords(boolean wholeWords, String... words) {
+		return Highlighter.compile(null, Arrays.asList(words), wholeWords, CaseMapping.RFC1459);
+	}
+
+	/**
+	 * @return Each match as "word@start-end".
+	 */
+	private static String found(Highlights highlights) {
+		StringBuilder found = new StringBuilder();
+		for (int i = 0; i < highlights.size(); i++) {
+			if (i > 0) {
+				found.append(' ');
+			}
+			found.append(highlights.getWord(i)).append('@').append(highlights.getStart(i)).append('-')
+					.append(highlights.getEnd(i));
+		}
+		return found.toString();
+	}
+
+	@Test
+	public void findsWordsEndingOnTheFailureChain() {
+		// "she" ends in "he", which is a word too
+		assertEquals("she@0-3 he@1-3 hers@1-5", found(keywords(false, "he", "she", "his", "hers").match("shers")));
+	}
+
+	@Test
+	public void followsFailureLinksAfterAMismatch() {
+		// "abd" fails after "ab" and must carry on from "b", not the root
+		assertEquals("bc@3-5", found(keywords(false, "abd", "bc").match("xxabc")));
+		assertEquals("aab@1-4", found(keywords(false, "aab").match("aaab")));
+	}
+
+	@Test
+	public void wholeWordsNeedBoundaries() {
+		Highlighter highlighter = keywords(true, "java");
+		assertEquals("java@0-4", found(highlighter.match("java!")));
+		assertEquals("java@4-8", found(highlighter.match("hot java")));
+		assertTrue(highlighter.match("javascript").isEmpty());
+		assertTrue(highlighter.match("myjava").isEmpty());
+		// Nick characters don't count as boundaries
+		assertTrue(highlighter.match("java_").isEmpty());
+		assertTrue(highlighter.match("[java]").isEmpty());
+	}
+
+	@Test
+	public void matchesAnywhereUnlessWholeWords() {
+		assertEquals("java@0-4", found(keywords(false, "java").match("javascript")));
+	}
+
+	@Test
+	public void nickIsAlwaysAWholeWord() {
+		Highlighter highlighter = Highlighter.compile("tom", Collections.<String>emptyList(), false, CaseMapping.RFC1459);
+		assertTrue(highlighter.match("see you tomorrow").isEmpty());
+		assertEquals("tom@4-7", found(highlighter.match("hey tom")));
+	}
+
+	@Test
+	public void keywordEqualToTheNickIsMatchedAnywhere() {
+		Highlighter highlighter = Highlighter.compile("tom", Arrays.asList("Tom"), false, CaseMapping.RFC1459);
+		assertEquals("tom@8-11", found(highlighter.match("see you tomorrow")));
+	}
+
+	@Test
+	public void repeatedWordIsMatchedOnceAndAnywhereWins() {
+		Highlighter highlighter = Highlighter.compile("bob", Arrays.asList("bob", "bob"), true, CaseMapping.RFC1459);
+		assertEquals("bob@0-3", found(highlighter.match("bob")));
+		assertTrue(highlighter.match("bobby").isEmpty());
+
+		assertEquals("bob@0-3", found(Highlighter.compile("bob", Arrays.asList("bob"), false, CaseMapping.RFC1459)
+				.match("bobby")));
+	}
+
+	@Test
+	public void usesTheServersCaseMapping() {
+		assertEquals("[a]@0-3", found(keywords(false, "[a]").match("{A}")));
+		assertTrue(Highlighter.compile(null, Arrays.asList("[a]"), false, CaseMapping.ASCII).match("{A}").isEmpty());
+	}
+
+	@Test
+	public void offsetsAreFromTheStartOfTheMessage() {
+		String line = ":bob!b@h PRIVMSG #c :hi java";
+		int start = line.indexOf(":hi") + 1;
+		assertEquals("java@3-7", found(keywords(true, "java").match(line, start, line.length())));
+	}
+}
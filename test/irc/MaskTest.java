@@ -0,0 +1,112 @@
+package irc;
+
+import irc.communicator.User;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MaskTest {
+	private static final Client CLIENT = new Client("localhost");
+
+	private static User user(String nick, String ident, String host) {
+		User user = new User(CLIENT);
+		user.nick = nick;
+		user.user = ident;
+		user.host = host;
+		return user;
+	}
+
+	/**
+	 * @return Whether the mask's nick part matches the nick.
+	 */
+	private static boolean nick(String mask, String nick) {
+		return new Mask(mask + "!*@*").matches(user(nick, "u", "h"), CaseMapping.RFC1459);
+	}
+
+	@Test
+	public void questionMarkIsExactlyOneCharacter() {
+		assertTrue(nick("a?c", "abc"));
+		assertFalse(nick("a?c", "ac"));
+		assertFalse(nick("a?c", "abbc"));
+		assertTrue(nick("??", "ab"));
+		assertFalse(nick("??", "a"));
+	}
+
+	@Test
+	public void starMatchesAnyRunIncludingNone() {
+		assertTrue(nick("a*", "a"));
+		assertTrue(nick("*a", "a"));
+		assertTrue(nick("a*c", "ac"));
+		assertTrue(nick("a*c", "abbbc"));
+		assertTrue(nick("**", "anything"));
+		assertFalse(nick("a*c", "abcd"));
+	}
+
+	@Test
+	public void backtracksToTheLastStar() {
+		// The first "b" the star could stop at is the wrong one
+		assertTrue(nick("a*b", "abxb"));
+		assertTrue(nick("*ab", "aab"));
+		assertTrue(nick("a*b*c", "abxbxc"));
+		assertTrue(nick("*a*a", "bababa"));
+		assertFalse(nick("*a*a", "babab"));
+		assertTrue(nick("*?x", "abx"));
+		assertFalse(nick("*?x", "x"));
+		assertTrue(nick("?*?", "ab"));
+		assertFalse(nick("?*?", "a"));
+	}
+
+	@Test
+	public void manyStarsStayFast() {
+		StringBuilder nick = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			nick.append('a');
+		}
+		assertFalse(nick("*a*a*a*a*a*a*a*a*b", nick.toString()));
+	}
+
+	@Test
+	public void fillsInMissingParts() {
+		assertEquals("nick!*@*", new Mask("nick").toString());
+		assertEquals("*!ident@host", new Mask("ident@host").toString());
+		assertEquals("*!*@*.example.com", new Mask("*.example.com").toString());
+		assertEquals("nick!ident@*", new Mask("nick!ident").toString());
+		assertEquals("*!*@*", new Mask("!@").toString());
+		assertEquals(new Mask("nick"), new Mask("nick!*@*"));
+	}
+
+	@Test
+	public void nickUsesTheCaseMappingAndTheRestIgnoresAsciiCase() {
+		Mask mask = new Mask("[Foo]!*@*.EXAMPLE.com");
+		assertTrue(mask.matches(user("{foo}", "u", "a.example.COM"), CaseMapping.RFC1459));
+		assertFalse(mask.matches(user("{foo}", "u", "a.example.com"), CaseMapping.ASCII));
+		assertFalse(mask.matches(user("[foo]", "u", "example.com"), CaseMapping.RFC1459));
+	}
+
+	@Test
+	public void unknownIdentAndHostOnlyMatchStar() {
+		User unknown = user("bob", null, null);
+		assertTrue(new Mask("bob").matches(unknown, CaseMapping.RFC1459));
+		assertFalse(new Mask("bob!*@?*").matches(unknown, CaseMapping.RFC1459));
+		assertFalse(new Mask("bob!b*@*").matches(unknown, CaseMapping.RFC1459));
+	}
+
+	@Test
+	public void matchesTheLinePrefixInPlace() {
+		IRCMessage message = new IRCMessage().parse(":Bob!bob@Host.Example.com PRIVMSG #c :hi");
+		assertTrue(new Mask("*!*@*.example.com").matches(message, CaseMapping.RFC1459));
+		assertTrue(new Mask("b?b!*b@*").matches(message, CaseMapping.RFC1459));
+		assertFalse(new Mask("*!*@*.example.org").matches(message, CaseMapping.RFC1459));
+
+		// Servers have no host to match
+		assertFalse(new Mask("*").matches(new IRCMessage().parse(":irc.example.com NOTICE * :hi"), CaseMapping.RFC1459));
+	}
+
+	@Test
+	public void exposesWhatTheIndexNeeds() {
+		assertEquals("bob", new Mask("bob!*@*").getLiteralNick());
+		assertNull(new Mask("b*!*@*").getLiteralNick());
+		assertEquals(".example.com", new Mask("*!*@*.Example.com").getHostSuffix());
+		assertEquals("", new Mask("*!*@host.*").getHostSuffix());
+	}
+}
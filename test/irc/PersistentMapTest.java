@@ -0,0 +1,162 @@
+package irc;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PersistentMapTest {
+	/**
+	 * Gives every key the hash it is told to, to build collisions on purpose.
+	 */
+	private static Equivalence hashedBy(final Map<String, Integer> hashes) {
+		return new Equivalence() {
+			@Override
+			public int hash(Object key) {
+				return hashes.get(key);
+			}
+
+			@Override
+			public boolean equivalent(Object a, Object b) {
+				return a.equals(b);
+			}
+		};
+	}
+
+	@Test
+	public void keepsKeysWithTheSameHash() {
+		// All have String hash codes of 2031744
+		String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+		PersistentMap<String, Integer> map = PersistentMap.empty();
+		for (int i = 0; i < keys.length; i++) {
+			map = map.with(keys[i], i);
+		}
+
+		assertEquals(4, map.size());
+		for (int i = 0; i < keys.length; i++) {
+			assertEquals(Integer.valueOf(i), map.get(keys[i]));
+		}
+		assertNull(map.get("CCCC"));
+		assertEquals(4, map.entrySet().size());
+
+		map = map.with("BBAa", 9);
+		assertEquals(4, map.size());
+		assertEquals(Integer.valueOf(9), map.get("BBAa"));
+	}
+
+	@Test
+	public void removesKeysFromACollision() {
+		PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty()
+				.with("AaAa", 1).with("AaBB", 2).with("BBAa", 3).with("other", 4);
+
+		PersistentMap<String, Integer> without = map.without("AaBB");
+		assertEquals(3, without.size());
+		assertNull(without.get("AaBB"));
+		assertEquals(Integer.valueOf(1), without.get("AaAa"));
+		assertEquals(Integer.valueOf(3), without.get("BBAa"));
+
+		without = without.without("AaAa").without("BBAa");
+		assertEquals(1, without.size());
+		assertEquals(Integer.valueOf(4), without.get("other"));
+		assertTrue(without.without("other").isEmpty());
+
+		// The old map is untouched
+		assertEquals(4, map.size());
+		assertEquals(Integer.valueOf(2), map.get("AaBB"));
+	}
+
+	@Test
+	public void splitsKeysThatOnlyDifferInTheTopBits() {
+		// Same bottom 30 bits, so they share a node at every level but the last
+		Map<String, Integer> hashes = new HashMap<String, Integer>();
+		hashes.put("a", 0x0ABCDEF1);
+		hashes.put("b", 0x4ABCDEF1);
+		hashes.put("c", 0x8ABCDEF1);
+		hashes.put("d", 0x8ABCDEF1);
+		hashes.put("e", 0x0ABCDEF2);
+
+		PersistentMap<String, String> map = PersistentMap.empty(hashedBy(hashes));
+		for (String key : hashes.keySet()) {
+			map = map.with(key, key.toUpperCase());
+		}
+
+		assertEquals(5, map.size());
+		for (String key : hashes.keySet()) {
+			assertEquals(key.toUpperCase(), map.get(key));
+		}
+		assertEquals(5, map.entrySet().size());
+
+		map = map.without("c");
+		assertNull(map.get("c"));
+		assertEquals("D", map.get("d"));
+		map = map.without("a");
+		assertEquals("B", map.get("b"));
+		assertEquals(3, map.size());
+	}
+
+	@Test
+	public void addsAKeyWithAnotherHashNextToACollision() {
+		Map<String, Integer> hashes = new HashMap<String, Integer>();
+		hashes.put("x", 7);
+		hashes.put("y", 7);
+		hashes.put("z", 7 + (1 << 5));
+
+		PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty(hashedBy(hashes))
+				.with("x", 1).with("y", 2).with("z", 3);
+		assertEquals(Integer.valueOf(1), map.get("x"));
+		assertEquals(Integer.valueOf(2), map.get("y"));
+		assertEquals(Integer.valueOf(3), map.get("z"));
+		assertEquals(3, map.entrySet().size());
+
+		map = map.without("y");
+		assertEquals(Integer.valueOf(1), map.get("x"));
+		assertEquals(Integer.valueOf(3), map.get("z"));
+		assertEquals(2, map.size());
+	}
+
+	@Test
+	public void returnsItselfWhenNothingChanges() {
+		Integer one = 1;
+		PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty().with("a", one);
+		assertSame(map, map.with("a", one));
+		assertSame(map, map.without("b"));
+	}
+
+	@Test
+	public void usesTheEquivalence() {
+		PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty(CaseMapping.RFC1459).with("[Foo]", 1);
+		assertEquals(Integer.valueOf(1), map.get("{foo}"));
+		assertTrue(map.without("{FOO}").isEmpty());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void cannotBeChangedInPlace() {
+		PersistentMap.<String, Integer>empty().put("a", 1);
+	}
+
+	@Test
+	public void matchesAHashMapThroughRandomChanges() {
+		Random random = new Random(42);
+		HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+		PersistentMap<Integer, Integer> map = PersistentMap.empty();
+
+		for (int i = 0; i < 20000; i++) {
+			// Few enough keys that removals often hit
+			Integer key = random.nextInt(2000) * 0x10001;
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.without(key);
+			} else {
+				expected.put(key, i);
+				map = map.with(key, i);
+			}
+		}
+
+		assertEquals(expected.size(), map.size());
+		assertEquals(expected, map);
+		assertEquals(expected, new HashMap<Integer, Integer>(map));
+	}
+}
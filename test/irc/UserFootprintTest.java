@@ -0,0 +1,100 @@
+package irc;
+
+import irc.communicator.Channel;
+import irc.net.LineListener;
+import irc.net.SendQueue;
+import irc.net.Transport;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the heap a known user costs, by filling a channel with users
+ * through NAMES replies and comparing the used heap before and after.
+ *
+ * Each user has a ten character nick, and the hosts are shared 100 ways, as
+ * with cloaks. Run with -Dirc.footprint.users=N for a bigger sample.
+ */
+public class UserFootprintTest {
+	private static final int USERS = Integer.getInteger("irc.footprint.users", 200000);
+
+	private LineListener server;
+
+	@Test
+	public void userFootprint() throws Exception {
+		Client client = new Client("localhost")
+				.setTransport(new Transport() {
+					@Override
+					public void open(InetSocketAddress address, Charset charset, SendQueue queue, LineListener listener) {
+						server = listener;
+					}
+
+					@Override
+					public void flush() {
+					}
+
+					@Override
+					public void close() {
+					}
+				})
+				.setUserInfo("Me", "me", "Me");
+		client.connect();
+		client.join("#big");
+		receive(":srv 001 Me :Welcome", ":Me!me@host JOIN #big");
+
+		// Built up front, so only what the client keeps is counted
+		List<String> lines = new ArrayList<String>();
+		StringBuilder line = new StringBuilder(":srv 353 Me = #big :@Me");
+		for (int i = 0; i < USERS; i++) {
+			if (line.length() == 0) {
+				line.append(":srv 353 Me = #big :");
+			} else {
+				line.append(' ');
+			}
+			line.append(String.format("user%06d!ident@cloak-%d.example", i, i % (USERS / 100)));
+			if (line.length() > 400) {
+				lines.add(line.toString());
+				line.setLength(0);
+			}
+		}
+		lines.add(line.toString());
+		lines.add(":srv 366 Me #big :End of /NAMES list.");
+
+		long before = usedHeap();
+		server.linesReceived(lines);
+		lines = null;
+		long after = usedHeap();
+
+		Channel channel = client.getState().getChannel("#big");
+		assertEquals(USERS + 1, channel.members.size());
+
+		long perUser = (after - before) / USERS;
+		System.out.println("UserFootprintTest: " + USERS + " users in one channel take " + perUser + " bytes each");
+		// Loose, so the JVM's layout can vary; a regression would be far over
+		assertTrue(perUser + " bytes per user", perUser < 400);
+	}
+
+	private void receive(String... lines) {
+		List<String> list = new ArrayList<String>();
+		for (String line : lines) {
+			list.add(line);
+		}
+		server.linesReceived(list);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+}
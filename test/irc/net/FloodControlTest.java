@@ -0,0 +1,83 @@
+package irc.net;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FloodControlTest {
+	@Test
+	public void costIsPerLinePlusPerHundredBytes() {
+		FloodControl floodControl = new FloodControl(10000, 2000, 500);
+		assertEquals(2000, floodControl.getCost(0));
+		assertEquals(2000 + 250, floodControl.getCost(50));
+		assertEquals(2000 + 2560, floodControl.getCost(512));
+		assertEquals(2000, FloodControl.RFC1459.getCost(512));
+	}
+
+	@Test
+	public void sendsWhileTheTimerIsLessThanAWindowAhead() {
+		// Lines go at +0, +3, +6 and +9 seconds of penalty; the fifth would
+		// put the timer 12 seconds ahead, 2 past the window
+		SendQueue queue = new SendQueue();
+		queue.setFloodControl(new FloodControl(10000, 3000, 0));
+		for (int i = 0; i < 5; i++) {
+			queue.add("PRIVMSG #c :" + i, Priority.NORMAL);
+		}
+
+		for (int i = 0; i < 4; i++) {
+			assertEquals("PRIVMSG #c :" + i, queue.poll().getLine());
+		}
+		assertNull(queue.poll());
+
+		long delay = queue.getDelay();
+		assertTrue("delay " + delay, delay > 1900 && delay <= 2001);
+		assertEquals(1, queue.getDepth());
+	}
+
+	@Test
+	public void urgentLinesSkipTheWaitButAreCharged() {
+		SendQueue queue = new SendQueue();
+		queue.setFloodControl(new FloodControl(10000, 6000, 0));
+		queue.add("PRIVMSG #c :a", Priority.NORMAL);
+		queue.add("PRIVMSG #c :b", Priority.NORMAL);
+		assertNotNull(queue.poll());
+		assertNotNull(queue.poll());
+		assertNull(queue.poll());
+
+		queue.add("PRIVMSG #c :c", Priority.NORMAL);
+		queue.add("PONG :x", Priority.URGENT);
+		assertEquals(0, queue.getDelay());
+		assertEquals("PONG :x", queue.poll().getLine());
+		assertNull(queue.poll());
+
+		// 18 seconds of penalty now, so the next line waits about 8
+		long delay = queue.getDelay();
+		assertTrue("delay " + delay, delay > 7900 && delay <= 8001);
+	}
+
+	@Test
+	public void higherPrioritiesGoFirst() {
+		SendQueue queue = new SendQueue();
+		queue.setFloodControl(FloodControl.NONE);
+		queue.add("bulk", Priority.BULK);
+		queue.add("normal", Priority.NORMAL);
+		queue.add("urgent", Priority.URGENT);
+
+		assertEquals("urgent", queue.poll().getLine());
+		assertEquals("normal", queue.poll().getLine());
+		assertEquals("bulk", queue.poll().getLine());
+		assertEquals(-1, queue.getDelay());
+	}
+
+	@Test
+	public void noneNeverHoldsLinesBack() {
+		SendQueue queue = new SendQueue();
+		queue.setFloodControl(FloodControl.NONE);
+		for (int i = 0; i < 1000; i++) {
+			queue.add("PRIVMSG #c :" + i, Priority.NORMAL);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertNotNull(queue.poll());
+		}
+	}
+}